@@ -15,6 +15,8 @@ public class CompilerGUI extends JFrame {
     private JTextArea outputArea;
     private JTextArea parseTreeArea;
     private JButton compileButton;
+    private final transient IncludeCache includeCache = new IncludeCache();  // Shared by every compile in this window
+    private final transient SymbolTable symbols = new SymbolTable();
 
     public CompilerGUI() {
         setTitle("Project #1 Compiler");
@@ -80,7 +82,7 @@ public class CompilerGUI extends JFrame {
         parseTreeArea.setText("");
 
         // Lexical analysis
-        Lexer lexer = new Lexer();
+        Lexer lexer = new Lexer(includeCache, symbols);
         List<Token> tokens = lexer.tokenize(code,"");
 
         // Display tokens
@@ -91,9 +93,11 @@ public class CompilerGUI extends JFrame {
 
         // Syntax analysis
         Parser parser = new Parser(tokens);
+        MatchTrace trace = new MatchTrace();
+        parser.addListener(trace);
         ParseTree parseTree = parser.parse();
         List<CompilerError> errors = parser.getErrors();
-        List<CompilerError> successes = parser.getSuccess();
+        List<CompilerError> successes = trace.getMatches();
 
         // Display parse tree
         parseTreeArea.append(parseTree.toString());
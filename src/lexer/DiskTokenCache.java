@@ -0,0 +1,317 @@
+package lexer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Opt-in cache of lexed token runs that survives between runs. Each run is a
+// file named after the hash of the compiler version, the source file name and
+// its content. Files that were not read recently are deleted once the cache
+// grows past its size limit, using the file modification time as last access.
+//
+// File layout (big-endian): magic, format version, compiler version, the
+// files pulled in by Using with their size and modification time, a string
+// table, the file name table, then one column per token field.
+public class DiskTokenCache {
+    // Part of every key; bump whenever the lexer output changes
+    public static final String COMPILER_VERSION = "1";
+
+    private static final int MAGIC = 0x50434B54;  // "PCKT"
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".tok";
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger evictions = new AtomicInteger();
+
+    public DiskTokenCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        for (Path file : cacheFiles()) {
+            totalBytes.addAndGet(Files.size(file));
+        }
+    }
+
+    String key(String fileName, CharSequence content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((COMPILER_VERSION + '\0' + fileName + '\0').getBytes(StandardCharsets.UTF_8));
+            digest.update(content.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Returns the run stored under key with its words interned into symbols,
+    // or null if there is none or a file it pulled in has changed since
+    IncludeCache.Entry load(String key, SymbolTable symbols) {
+        Path file = directory.resolve(key + SUFFIX);
+        if (!Files.exists(file)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            IncludeCache.Entry entry = read(data, symbols);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return entry;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                 | NegativeArraySizeException e) {
+            // Unreadable or truncated, e.g. written by a run that was killed
+            misses.incrementAndGet();
+            long size = sizeOf(file);
+            if (delete(file)) {
+                totalBytes.addAndGet(-size);
+            }
+            return null;
+        }
+    }
+
+    // Stores a run and the files it pulled in. The cache is only an
+    // accelerator, so a run that cannot be written is simply not cached.
+    void store(String key, TokenBuffer tokens, List<IncludeCache.FileStamp> dependencies) {
+        Path file = directory.resolve(key + SUFFIX);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                write(out, tokens, dependencies);
+            }
+            long previous = Files.exists(file) ? Files.size(file) : 0;
+            long size = Files.size(temp);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (totalBytes.addAndGet(size - previous) > maxBytes) {
+                evict();
+            }
+        } catch (IOException e) {
+            if (temp != null) {
+                delete(temp);
+            }
+        }
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    public int getEvictions() {
+        return evictions.get();
+    }
+
+    public long getSizeBytes() {
+        return totalBytes.get();
+    }
+
+    public synchronized void clear() throws IOException {
+        for (Path file : cacheFiles()) {
+            Files.deleteIfExists(file);
+        }
+        totalBytes.set(0);
+    }
+
+    // Deletes the least recently used runs until the cache fits its limit again
+    private synchronized void evict() throws IOException {
+        List<Path> files = cacheFiles();
+        Map<Path, FileTime> lastUsed = new HashMap<>();
+        long total = 0;
+        for (Path file : files) {
+            lastUsed.put(file, Files.getLastModifiedTime(file));
+            total += Files.size(file);
+        }
+        files.sort((a, b) -> lastUsed.get(a).compareTo(lastUsed.get(b)));
+        for (Path file : files) {
+            if (total <= maxBytes) break;
+            long size = Files.size(file);
+            if (delete(file)) {
+                total -= size;
+                evictions.incrementAndGet();
+            }
+        }
+        totalBytes.set(total);
+    }
+
+    private List<Path> cacheFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static boolean delete(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            return false;  // Still mapped or locked elsewhere; retried on the next eviction
+        }
+    }
+
+    private static void write(DataOutputStream out, TokenBuffer tokens, List<IncludeCache.FileStamp> dependencies) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeString(out, COMPILER_VERSION);
+
+        out.writeInt(dependencies.size());
+        for (IncludeCache.FileStamp stamp : dependencies) {
+            writeString(out, stamp.file.getPath());
+            out.writeLong(stamp.lastModified);
+            out.writeLong(stamp.length);
+        }
+
+        // Every distinct token text and file name is written once
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> fileIds = new HashMap<>();
+        List<Integer> fileNames = new ArrayList<>();
+        int size = tokens.size();
+        int[] values = new int[size];
+        int[] files = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = stringId(tokens.getValue(i), stringIds, strings);
+            String fileName = tokens.getFileName(i);
+            Integer fileId = fileIds.get(fileName);
+            if (fileId == null) {
+                fileId = fileNames.size();
+                fileIds.put(fileName, fileId);
+                fileNames.add(fileName == null ? -1 : stringId(fileName, stringIds, strings));
+            }
+            files[i] = fileId;
+        }
+
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            writeString(out, string);
+        }
+        out.writeInt(fileNames.size());
+        for (int fileName : fileNames) {
+            out.writeInt(fileName);
+        }
+
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            // Words keep their symbol flag in the top bit of the type
+            out.writeByte(tokens.getType(i).ordinal() | (tokens.getSymbol(i) >= 0 ? 0x80 : 0));
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeInt(values[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeInt(tokens.getLineNumber(i));
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeInt(files[i]);
+        }
+    }
+
+    private static IncludeCache.Entry read(ByteBuffer data, SymbolTable symbols) {
+        if (data.getInt() != MAGIC || data.getInt() != FORMAT_VERSION || !readString(data).equals(COMPILER_VERSION)) {
+            throw new IllegalArgumentException("Not a token cache file of this version");
+        }
+
+        List<IncludeCache.FileStamp> dependencies = new ArrayList<>();
+        for (int i = data.getInt(); i > 0; i--) {
+            IncludeCache.FileStamp stamp = new IncludeCache.FileStamp(new File(readString(data)), data.getLong(), data.getLong());
+            if (!stamp.isCurrent()) {
+                return null;
+            }
+            dependencies.add(stamp);
+        }
+
+        String[] strings = new String[data.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(data);
+        }
+        String[] fileNames = new String[data.getInt()];
+        for (int i = 0; i < fileNames.length; i++) {
+            int id = data.getInt();
+            fileNames[i] = id < 0 ? null : strings[id];
+        }
+
+        // The columns are copied in bulk; only the token types are looked at
+        // one by one, and each distinct word is interned once
+        int size = data.getInt();
+        byte[] types = new byte[size];
+        data.get(types);
+        int[] values = new int[size];
+        int[] lines = new int[size];
+        int[] files = new int[size];
+        IntBuffer columns = data.slice().asIntBuffer();
+        columns.get(values);
+        columns.get(lines);
+        columns.get(files);
+        TokenBuffer tokens = TokenBuffer.fromColumns(symbols, strings, fileNames, types, values, lines, files);
+        return new IncludeCache.Entry(tokens, dependencies, false);
+    }
+
+    private static int stringId(String string, Map<String, Integer> ids, List<String> strings) {
+        Integer id = ids.get(string);
+        if (id == null) {
+            id = strings.size();
+            ids.put(string, id);
+            strings.add(string);
+        }
+        return id;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,85 @@
+package lexer;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Token runs of files pulled in by Using, keyed by canonical path. An entry
+// is reused as long as the included file, and every file it pulled in
+// itself, still has the size and modification time it was lexed with.
+public class IncludeCache {
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    Entry get(String path) {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.isCurrent()) {
+            hits.incrementAndGet();
+            return entry;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    static class Entry {
+        final TokenBuffer tokens;
+        final List<FileStamp> files;
+        final boolean hasCycle;
+
+        Entry(TokenBuffer tokens, List<FileStamp> files, boolean hasCycle) {
+            this.tokens = tokens;
+            this.files = files;
+            this.hasCycle = hasCycle;
+        }
+
+        boolean isCurrent() {
+            for (FileStamp file : files) {
+                if (!file.isCurrent()) return false;
+            }
+            return true;
+        }
+    }
+
+    static class FileStamp {
+        final File file;
+        final long lastModified;
+        final long length;
+
+        FileStamp(File file) {
+            this(file, file.lastModified(), file.length());
+        }
+
+        FileStamp(File file, long lastModified, long length) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        boolean isCurrent() {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package lexer;
+
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+// Times the identifier path of the scanner on identifier-heavy input: the
+// keyword table against the linear KEYWORDS scan it replaced, and the whole
+// lexer on the same text. Run with: java -cp <classes> lexer.KeywordBenchmark
+class KeywordBenchmark {
+    private static final String[] KEYWORDS = {
+            "Division", "InferedFrom", "WhetherDoElse", "Ire", "Sire", "Clo",
+            "SetOfClo", "FBU", "SFBU", "None", "Logical", "terminatethis",
+            "Rotatewhen", "Continuewhen", "Replywith", "Seop", "Check",
+            "Program", "End", "Using"
+    };
+    private static final int WORDS = 200_000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        StringBuilder source = new StringBuilder();
+        int[] starts = new int[WORDS];
+        int[] ends = new int[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            starts[i] = source.length();
+            // Nine identifiers for every keyword, some sharing a keyword's length or first letter
+            if (i % 10 == 0) {
+                source.append(KEYWORDS[random.nextInt(KEYWORDS.length)]);
+            } else {
+                int length = 1 + random.nextInt(12);
+                source.append((char) ('A' + random.nextInt(26)));
+                for (int j = 1; j < length; j++) {
+                    source.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            ends[i] = source.length();
+            source.append(i % 8 == 7 ? " ;\n" : " ");
+        }
+        String text = source.toString();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long linear = time(() -> {
+                int keywords = 0;
+                for (int i = 0; i < WORDS; i++) {
+                    if (linearKeywordType(text, starts[i], ends[i]) != TokenType.IDENTIFIER) keywords++;
+                }
+                return keywords;
+            });
+            long table = time(() -> {
+                int keywords = 0;
+                for (int i = 0; i < WORDS; i++) {
+                    if (Scanner.keywordType(text, starts[i], ends[i]) != TokenType.IDENTIFIER) keywords++;
+                }
+                return keywords;
+            });
+            long lexer = time(() -> new Lexer().tokenizeToBuffer(text, "bench.txt").size());
+
+            System.out.printf("round %d: linear scan %.2f ms, keyword table %.2f ms, tokenize %.2f ms%n",
+                    round + 1, linear / 1e6, table / 1e6, lexer / 1e6);
+        }
+    }
+
+    private static long time(IntSupplier work) {
+        long start = System.nanoTime();
+        if (work.getAsInt() < 0) {
+            throw new AssertionError();
+        }
+        return System.nanoTime() - start;
+    }
+
+    // The classification used before the keyword table: a scan over every
+    // keyword followed by a switch on the matched text
+    private static TokenType linearKeywordType(CharSequence text, int start, int end) {
+        String word = text.subSequence(start, end).toString();
+        for (String keyword : KEYWORDS) {
+            if (keyword.equals(word)) {
+                switch (keyword) {
+                    case "Division": return TokenType.CLASS;
+                    case "InferedFrom": return TokenType.INHERITANCE;
+                    case "WhetherDoElse": return TokenType.CONDITION;
+                    case "Ire": return TokenType.INTEGER;
+                    case "Sire": return TokenType.SINTEGER;
+                    case "Clo": return TokenType.CHARACTER;
+                    case "SetOfClo": return TokenType.STRING;
+                    case "FBU": return TokenType.FLOAT;
+                    case "SFBU": return TokenType.SFLOAT;
+                    case "None": return TokenType.VOID;
+                    case "Logical": return TokenType.BOOLEAN;
+                    case "terminatethis": return TokenType.BREAK;
+                    case "Rotatewhen":
+                    case "Continuewhen": return TokenType.LOOP;
+                    case "Replywith": return TokenType.RETURN;
+                    case "Seop": return TokenType.STRUCT;
+                    case "Check": return TokenType.SWITCH;
+                    case "Program": return TokenType.START_STATEMENT;
+                    case "End": return TokenType.END_STATEMENT;
+                    case "Using": return TokenType.INCLUSION;
+                    default: return TokenType.UNKNOWN;
+                }
+            }
+        }
+        return TokenType.IDENTIFIER;
+    }
+}
@@ -0,0 +1,357 @@
+package lexer;
+
+import java.util.Arrays;
+
+// Token buffer of a source that is edited in place. For every line it keeps
+// where the line's text lives, the comment state the lexer starts the line in
+// and the index of the line's first token, so an edit only re-scans lines
+// until the lexer reaches a line boundary in the same state as before.
+//
+// Edited lines are appended to one EditText rather than kept as Strings of
+// their own, so the token buffer sees the same two sources however many edits
+// are made.
+//
+// Unlike tokenize, every line of the text is kept, so blank lines at the very
+// end of an unterminated comment still produce (empty) comment tokens.
+public class LexedDocument {
+    private static final int MIN_EDIT_SLACK = 4096;
+
+    private final Lexer lexer;
+    private final String sourceFileName;
+    private final TokenBuffer tokens;
+
+    private int lineCount;
+    private CharSequence[] lineText;
+    private int[] lineStart;
+    private int[] lineEnd;
+    private boolean[] startsInComment;  // lineCount + 1 entries, the last is the state at the end
+    private boolean[] includesFile;     // Line was replaced by tokens of other files
+    private int[] firstToken;           // lineCount + 1 entries, the last is tokens.size()
+    private int editStart;              // The last edit replaced tokens [editStart, editOldEnd)
+    private int editOldEnd;             // with tokens [editStart, editNewEnd)
+    private int editNewEnd;
+    private int editLineShift;          // and moved the lines after it by editLineShift
+    private EditText edits = new EditText();
+    private int liveEditChars;          // Characters of edits still used by some line
+
+    private LexedDocument(Lexer lexer, String sourceFileName) {
+        this.lexer = lexer;
+        this.sourceFileName = sourceFileName;
+        this.tokens = new TokenBuffer(lexer.getSymbols());
+    }
+
+    public static LexedDocument lex(Lexer lexer, String input, String sourceFileName) {
+        LexedDocument document = new LexedDocument(lexer, sourceFileName);
+        int count = countLines(input);
+        document.allocate(count);
+        document.setLines(0, input, 0, input.length(), count);
+        document.lineCount = count;
+
+        lexer.enterSource(sourceFileName);
+        LineSink sink = new LineSink(document.tokens);
+        for (int i = 0; i < count; i++) {
+            document.lexLine(i, sink);
+        }
+        document.startsInComment[count] = lexer.isInMultiLineComment();
+        document.firstToken[count] = document.tokens.size();
+        return document;
+    }
+
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    public String getFileName() {
+        return sourceFileName;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    // Token range of the last replaceLines, e.g. for Parser.reparse. Lines
+    // that include other files are lexed again after an edit too, but give
+    // the same tokens unless the included files changed.
+    public int getEditStart() {
+        return editStart;
+    }
+
+    public int getEditOldEnd() {
+        return editOldEnd;
+    }
+
+    public int getEditNewEnd() {
+        return editNewEnd;
+    }
+
+    // Lines of this document after the last edit moved by this many; lines
+    // of included files stay where they were
+    public int getEditLineShift() {
+        return editLineShift;
+    }
+
+    // Replaces removedLines lines starting at firstLine (1-based) with the
+    // lines of replacement; an empty replacement only removes them. Returns
+    // the number of lines that had to be lexed again.
+    public int replaceLines(int firstLine, int removedLines, String replacement) {
+        int from = firstLine - 1;
+        if (from < 0 || removedLines < 0 || from + removedLines > lineCount) {
+            throw new IndexOutOfBoundsException("Lines " + firstLine + " to " + (firstLine + removedLines - 1)
+                    + " are outside of 1 to " + lineCount);
+        }
+        int added = replacement.isEmpty() ? 0 : countLines(replacement);
+        int delta = added - removedLines;
+
+        // Old comment states and token starts of the lines after the edit,
+        // indexed by their new line number
+        int oldTo = from + removedLines;
+        int replacedFrom = firstToken[from];
+        boolean startState = startsInComment[from];
+        boolean[] oldStates = Arrays.copyOfRange(startsInComment, oldTo, lineCount + 1);
+        int[] oldFirstTokens = Arrays.copyOfRange(firstToken, oldTo, lineCount + 1);
+
+        for (int i = from; i < oldTo; i++) {
+            if (lineText[i] == edits) {
+                liveEditChars -= lineEnd[i] - lineStart[i];
+            }
+        }
+        moveLines(oldTo, delta);
+        int base = edits.append(replacement);
+        setLines(from, edits, base, base + replacement.length(), added);
+        liveEditChars += replacement.length() - Math.max(0, added - 1);  // Without the newlines
+
+        // Lex the new lines, then keep going while the comment state differs
+        lexer.enterSource(sourceFileName);
+        lexer.setInMultiLineComment(startState);
+        TokenBuffer run = new TokenBuffer(lexer.getSymbols());
+        LineSink sink = new LineSink(run);
+        int line = from;
+        int resumeLine = from + added;
+        while (line < resumeLine || (line < lineCount && lexer.isInMultiLineComment() != oldStates[line - resumeLine])) {
+            lexLine(line, sink);
+            line++;
+        }
+        int stop = line;
+        startsInComment[stop] = lexer.isInMultiLineComment();
+
+        int replacedTo = oldFirstTokens[stop - resumeLine];
+        tokens.replace(replacedFrom, replacedTo, run);
+        editStart = replacedFrom;
+        editOldEnd = replacedTo;
+        editNewEnd = replacedFrom + run.size();
+        editLineShift = delta;
+        int tokenDelta = run.size() - (replacedTo - replacedFrom);
+        for (int i = from; i < stop; i++) {
+            firstToken[i] += replacedFrom;
+        }
+        for (int i = stop; i <= lineCount; i++) {
+            firstToken[i] = oldFirstTokens[i - resumeLine] + tokenDelta;
+        }
+
+        if (delta != 0) {
+            renumber(stop, delta);
+        }
+        if (edits.length() > 2 * liveEditChars + MIN_EDIT_SLACK) {
+            compactEdits();
+        }
+        return stop - from;
+    }
+
+    // Copies the edited lines still in use to a new EditText and points their
+    // tokens at it, dropping the text of lines that were replaced since
+    private void compactEdits() {
+        EditText old = edits;
+        edits = new EditText();
+        for (int i = 0; i < lineCount; i++) {
+            if (lineText[i] == old) {
+                int start = edits.append(old, lineStart[i], lineEnd[i]);
+                tokens.rebase(firstToken[i], firstToken[i + 1], old, edits, start - lineStart[i]);
+                lineText[i] = edits;
+                lineEnd[i] += start - lineStart[i];
+                lineStart[i] = start;
+            }
+        }
+        liveEditChars = edits.length();
+    }
+
+    // Moves the line numbers of the tokens after an edit. Lines that pulled in
+    // other files are lexed again instead, since only some of their tokens
+    // carry this document's line numbers.
+    private void renumber(int fromLine, int delta) {
+        int rangeStart = firstToken[fromLine];
+        for (int i = fromLine; i < lineCount; i++) {
+            if (includesFile[i]) {
+                tokens.shiftLines(rangeStart, firstToken[i], delta);
+                relexLine(i);
+                rangeStart = firstToken[i + 1];
+            }
+        }
+        tokens.shiftLines(rangeStart, tokens.size(), delta);
+    }
+
+    private void relexLine(int line) {
+        int from = firstToken[line];
+        int to = firstToken[line + 1];
+        lexer.enterSource(sourceFileName);
+        lexer.setInMultiLineComment(startsInComment[line]);
+        TokenBuffer run = new TokenBuffer(lexer.getSymbols());
+        lexLine(line, new LineSink(run));
+
+        tokens.replace(from, to, run);
+        firstToken[line] = from;
+        int tokenDelta = run.size() - (to - from);
+        for (int i = line + 1; i <= lineCount; i++) {
+            firstToken[i] += tokenDelta;
+        }
+    }
+
+    // Lexes one line into sink and records where its tokens start relative to the sink
+    private void lexLine(int line, LineSink sink) {
+        startsInComment[line] = lexer.isInMultiLineComment();
+        firstToken[line] = sink.size();
+        sink.includes = false;
+        lexer.processSourceLine(lineText[line], lineStart[line], lineEnd[line], line + 1, sourceFileName, sink);
+        includesFile[line] = sink.includes;
+    }
+
+    // Shifts the per-line entries from line onwards by delta lines
+    private void moveLines(int line, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        int newCount = lineCount + delta;
+        if (newCount + 1 > firstToken.length) {
+            grow(newCount + 1);
+        }
+        int length = lineCount + 1 - line;
+        System.arraycopy(lineText, line, lineText, line + delta, length - 1);
+        System.arraycopy(lineStart, line, lineStart, line + delta, length - 1);
+        System.arraycopy(lineEnd, line, lineEnd, line + delta, length - 1);
+        System.arraycopy(startsInComment, line, startsInComment, line + delta, length);
+        System.arraycopy(includesFile, line, includesFile, line + delta, length - 1);
+        System.arraycopy(firstToken, line, firstToken, line + delta, length);
+        lineCount = newCount;
+    }
+
+    // Points count lines starting at line at the '\n' separated lines of text[from, to)
+    private void setLines(int line, CharSequence text, int from, int to, int count) {
+        int start = from;
+        for (int i = 0; i < count; i++) {
+            int end = start;
+            while (end < to && text.charAt(end) != '\n') {
+                end++;
+            }
+            lineText[line + i] = text;
+            lineStart[line + i] = start;
+            lineEnd[line + i] = end;
+            start = end + 1;
+        }
+    }
+
+    private void allocate(int count) {
+        lineText = new CharSequence[count + 1];
+        lineStart = new int[count + 1];
+        lineEnd = new int[count + 1];
+        startsInComment = new boolean[count + 1];
+        includesFile = new boolean[count + 1];
+        firstToken = new int[count + 1];
+    }
+
+    private void grow(int needed) {
+        int capacity = Math.max(needed, firstToken.length * 2);
+        lineText = Arrays.copyOf(lineText, capacity);
+        lineStart = Arrays.copyOf(lineStart, capacity);
+        lineEnd = Arrays.copyOf(lineEnd, capacity);
+        startsInComment = Arrays.copyOf(startsInComment, capacity);
+        includesFile = Arrays.copyOf(includesFile, capacity);
+        firstToken = Arrays.copyOf(firstToken, capacity);
+    }
+
+    private static int countLines(String text) {
+        int count = 1;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    // Append-only text of the edited lines. Characters are never changed once
+    // appended, so token offsets into it stay valid as it grows.
+    private static class EditText implements CharSequence {
+        private char[] chars = new char[256];
+        private int length;
+
+        // Appends text and returns the offset it starts at
+        int append(CharSequence text) {
+            return append(text, 0, text.length());
+        }
+
+        int append(CharSequence text, int from, int to) {
+            int start = length;
+            if (length + to - from > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(length + to - from, chars.length * 2));
+            }
+            for (int i = from; i < to; i++) {
+                chars[length++] = text.charAt(i);
+            }
+            return start;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+
+    // Forwards to a buffer and notes whether a line emitted tokens of other
+    // files (includes) or synthetic tokens (include errors)
+    private static class LineSink implements TokenSink {
+        private final TokenBuffer buffer;
+        private boolean includes;
+
+        LineSink(TokenBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int size() {
+            return buffer.size();
+        }
+
+        @Override
+        public void emit(TokenType type, CharSequence text, int start, int end, int lineNumber, String fileName) {
+            buffer.emit(type, text, start, end, lineNumber, fileName);
+        }
+
+        @Override
+        public void emitSymbol(TokenType type, CharSequence text, int start, int end, int symbol, int lineNumber, String fileName) {
+            buffer.emitSymbol(type, text, start, end, symbol, lineNumber, fileName);
+        }
+
+        @Override
+        public void emit(Token token) {
+            includes = true;
+            buffer.emit(token);
+        }
+
+        @Override
+        public void emitAll(TokenBuffer run) {
+            includes = true;
+            buffer.emitAll(run);
+        }
+    }
+}
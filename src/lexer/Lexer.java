@@ -2,164 +2,305 @@ package lexer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Lexer {
+    private static final Pattern USING_PATTERN = Pattern.compile("Using\\s*\\(\\s*\"([^\"]+)\"\\s*\\)\\s*;");
+
     private Stack<LexerState> stateStack = new Stack<>();
     private String currentDirectory = "src/bin/";
+    private String sourcePath;
     private boolean inMultiLineComment = false;
-    private static final Pattern TOKEN_PATTERNS = Pattern.compile(
-            "\\s*(?:" +
-                    "/(?:-|##)|" +  // Comment starters
-                    "\"(?:\\\\.|[^\"\\\\])*\"|" + // Strings
-                    "'(?:\\\\.|[^'\\\\])'|" + // Characters
-                    "\\d+|" + // Numbers
-                    "[a-zA-Z_][a-zA-Z0-9_]*|" + // Identifiers and keywords
-                    "&&|\\|\\||~|==|!=|<=|>=|[=<>+\\-*/.,;{}()\\[\\]]" + // Operators
-                    ")"
-    );
-
-    private static final String[] KEYWORDS = {
-            "Division", "InferedFrom", "WhetherDoElse", "Ire", "Sire", "Clo",
-            "SetOfClo", "FBU", "SFBU", "None", "Logical", "terminatethis",
-            "Rotatewhen", "Continuewhen", "Replywith", "Seop", "Check",
-            "Program", "End", "Using"
-    };
+    private final Scanner scanner = new Scanner();
+    private final IncludeCache includeCache;
+    private final SymbolTable symbols;
+    private final boolean parallelIncludes;
+    private DiskTokenCache diskCache;
+    private Map<String, Future<IncludeCache.Entry>> prefetched = Collections.emptyMap();
+    private int cyclesFound;
+
+    public Lexer() {
+        this(new IncludeCache());
+    }
+
+    // Lexers sharing a cache read and lex each included file only once
+    public Lexer(IncludeCache includeCache) {
+        this(includeCache, false);
+    }
+
+    // With parallelIncludes, all Using directives of a file are found up front
+    // and the included files are read and lexed concurrently on virtual threads
+    public Lexer(IncludeCache includeCache, boolean parallelIncludes) {
+        this(includeCache, new SymbolTable(), parallelIncludes);
+    }
+
+    // Identifiers and keywords are interned into symbols, which is normally
+    // shared by every lexer of a compilation session
+    public Lexer(IncludeCache includeCache, SymbolTable symbols) {
+        this(includeCache, symbols, false);
+    }
+
+    public Lexer(IncludeCache includeCache, SymbolTable symbols, boolean parallelIncludes) {
+        this.includeCache = includeCache;
+        this.symbols = symbols;
+        this.parallelIncludes = parallelIncludes;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    // Opt-in: String sources and included files are then looked up on disk
+    // before they are lexed, and stored there afterwards
+    public void setDiskCache(DiskTokenCache diskCache) {
+        this.diskCache = diskCache;
+    }
 
     public List<Token> tokenize(String input, String sourceFileName) {
-        List<Token> tokens = new ArrayList<>();
-        String[] lines = input.split("\n");
+        TokenList tokens = new TokenList(symbols);
+        enterSource(sourceFileName);
+        scanSourceCached(input, sourceFileName, tokens);
+        return tokens.getTokens();
+    }
+
+    // Lexes a memory-mapped file. Tokens keep offsets into the mapping and
+    // only decode their text when it is asked for.
+    public List<Token> tokenize(MappedSource source) {
+        TokenList tokens = new TokenList(symbols);
+        enterSource(source.getFileName());
+        scanSource(source, source.getFileName(), tokens);
+        return tokens.getTokens();
+    }
+
+    // Same as tokenize, but the result is kept in parallel primitive arrays
+    // instead of one Token object per token
+    public TokenBuffer tokenizeToBuffer(String input, String sourceFileName) {
+        TokenBuffer tokens = new TokenBuffer(symbols);
+        enterSource(sourceFileName);
+        scanSourceCached(input, sourceFileName, tokens);
+        return tokens;
+    }
+
+    public TokenBuffer tokenizeToBuffer(MappedSource source) {
+        TokenBuffer tokens = new TokenBuffer(symbols);
+        enterSource(source.getFileName());
+        scanSource(source, source.getFileName(), tokens);
+        return tokens;
+    }
+
+    // Pull-based alternative to tokenize: the source is read in chunks and
+    // tokens are produced one line at a time as the caller asks for them.
+    public TokenStream stream(Reader input, String sourceFileName) {
+        enterSource(sourceFileName);
+        return new TokenStream(this, input, sourceFileName);
+    }
+
+    public TokenStream stream(ReadableByteChannel input, String sourceFileName) {
+        return stream(Channels.newReader(input, StandardCharsets.UTF_8), sourceFileName);
+    }
+
+    void enterSource(String sourceFileName) {
         currentDirectory = sourceFileName != null ?
                 new File(sourceFileName).getParent() : currentDirectory;
+        sourcePath = canonicalPath(sourceFileName);
+        stateStack.clear();
+    }
 
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i].trim();
+    private static String canonicalPath(String fileName) {
+        if (fileName == null || fileName.isEmpty()) return null;
+        try {
+            return new File(fileName).getCanonicalPath();
+        } catch (IOException e) {
+            return null;
+        }
+    }
 
-            // Skip empty lines unless we're in a multi-line comment
-            if (line.isEmpty() && !inMultiLineComment) continue;
-
-            // Handle multi-line comments
-            if (inMultiLineComment) {
-                if (line.contains("##/")) {
-                    // End of multi-line comment
-                    int endIndex = line.indexOf("##/");
-                    tokens.add(new Token(TokenType.COMMENT, line.substring(0, endIndex + 3), i + 1, sourceFileName));
-                    inMultiLineComment = false;
-
-                    // Process remaining content after comment
-                    String remaining = line.substring(endIndex + 3).trim();
-                    if (!remaining.isEmpty()) {
-                        processLine(remaining, i + 1, sourceFileName, tokens);
-                    }
-                } else {
-                    // Entire line is part of multi-line comment
-                    tokens.add(new Token(TokenType.COMMENT, line, i + 1, sourceFileName));
-                }
-                continue;
-            }
+    boolean isInMultiLineComment() {
+        return inMultiLineComment;
+    }
 
-            // Check for start of multi-line comment
-            if (line.contains("/##")) {
-                int startIndex = line.indexOf("/##");
+    void setInMultiLineComment(boolean inMultiLineComment) {
+        this.inMultiLineComment = inMultiLineComment;
+    }
 
-                // Process any content before the comment
-                String beforeComment = line.substring(0, startIndex).trim();
-                if (!beforeComment.isEmpty()) {
-                    processLine(beforeComment, i + 1, sourceFileName, tokens);
-                }
+    private void scanSourceCached(String text, String sourceFileName, TokenSink tokens) {
+        if (diskCache == null) {
+            scanSource(text, sourceFileName, tokens);
+            return;
+        }
+        String key = diskCache.key(sourceFileName, text);
+        IncludeCache.Entry cached = diskCache.load(key, symbols);
+        if (cached != null) {
+            tokens.emitAll(cached.tokens);
+            return;
+        }
 
-                // Handle the comment
-                if (line.contains("##/")) {
-                    // Single-line comment block
-                    int endIndex = line.indexOf("##/", startIndex);
-                    tokens.add(new Token(TokenType.COMMENT,
-                            line.substring(startIndex, endIndex + 3),
-                            i + 1, sourceFileName));
-
-                    // Process remaining content after comment
-                    String remaining = line.substring(endIndex + 3).trim();
-                    if (!remaining.isEmpty()) {
-                        processLine(remaining, i + 1, sourceFileName, tokens);
-                    }
-                } else {
-                    // Start of multi-line comment
-                    tokens.add(new Token(TokenType.COMMENT,
-                            line.substring(startIndex),
-                            i + 1, sourceFileName));
-                    inMultiLineComment = true;
-                }
-                continue;
-            }
+        // Collect the files pulled in by Using, which the stored run depends on
+        TokenBuffer lexed = new TokenBuffer(symbols);
+        LexerState state = new LexerState(currentDirectory, inMultiLineComment, sourcePath);
+        stateStack.push(state);
+        int cyclesBefore = cyclesFound;
+        try {
+            scanSource(text, sourceFileName, lexed);
+        } finally {
+            stateStack.pop();
+        }
+        if (cyclesFound == cyclesBefore) {
+            diskCache.store(key, lexed, state.dependencies);
+        }
+        tokens.emitAll(lexed);
+    }
 
-            // Check for single-line comments
-            if (line.startsWith("/-")) {
-                tokens.add(new Token(TokenType.COMMENT, line, i + 1, sourceFileName));
-                continue;
-            }
+    private void scanSource(CharSequence text, String sourceFileName, TokenSink tokens) {
+        if (!parallelIncludes) {
+            scanLines(text, sourceFileName, tokens);
+            return;
+        }
 
-            // Check for Using command (must be at start of line)
-            if (line.startsWith("Using")) {
-                processUsingCommand(line, i + 1, currentDirectory, tokens);
-                continue;
-            }
+        // Included runs are spliced in source order by the sequential scan,
+        // which picks up the prefetched results as it reaches each directive
+        Map<String, Future<IncludeCache.Entry>> outer = prefetched;
+        prefetched = prefetchIncludes(text);
+        try {
+            scanLines(text, sourceFileName, tokens);
+        } finally {
+            prefetched = outer;
+        }
+    }
 
-            // Normal line processing
-            processLine(line, i + 1, sourceFileName, tokens);
+    private void scanLines(CharSequence text, String sourceFileName, TokenSink tokens) {
+        // Trailing empty lines are ignored, as String.split("\n") used to drop them
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == '\n') end--;
+        if (end == 0 && text.length() > 0) return;
+
+        int lineStart = 0;
+        int lineNumber = 1;
+        while (true) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && text.charAt(lineEnd) != '\n') lineEnd++;
+            processSourceLine(text, lineStart, lineEnd, lineNumber, sourceFileName, tokens);
+            if (lineEnd >= end) break;
+            lineStart = lineEnd + 1;
+            lineNumber++;
         }
-        return tokens;
     }
 
-    private void processLine(String line, int lineNumber, String sourceFileName, List<Token> tokens) {
-        Matcher matcher = TOKEN_PATTERNS.matcher(line);
-        while (matcher.find()) {
-            String tokenValue = matcher.group().trim();
-            if (tokenValue.isEmpty()) continue;
+    // Lexes text[from, to) as one source line. Everything works on offsets so
+    // no trimmed or split copies of the line are made.
+    void processSourceLine(CharSequence text, int from, int to, int lineNumber, String sourceFileName, TokenSink tokens) {
+        while (from < to && text.charAt(from) <= ' ') from++;
+        while (to > from && text.charAt(to - 1) <= ' ') to--;
+
+        // Skip empty lines unless we're in a multi-line comment
+        if (from == to && !inMultiLineComment) return;
+
+        // Handle multi-line comments
+        if (inMultiLineComment) {
+            int endIndex = indexOf(text, from, to, "##/");
+            if (endIndex >= 0) {
+                // End of multi-line comment
+                tokens.emit(TokenType.COMMENT, text, from, endIndex + 3, lineNumber, sourceFileName);
+                inMultiLineComment = false;
+
+                // Process remaining content after comment
+                processLine(text, endIndex + 3, to, lineNumber, sourceFileName, tokens);
+            } else {
+                // Entire line is part of multi-line comment
+                tokens.emit(TokenType.COMMENT, text, from, to, lineNumber, sourceFileName);
+            }
+            return;
+        }
+
+        // Check for start of multi-line comment
+        int startIndex = indexOf(text, from, to, "/##");
+        if (startIndex >= 0) {
+            // Process any content before the comment
+            processLine(text, from, startIndex, lineNumber, sourceFileName, tokens);
+
+            // Handle the comment
+            int endIndex = indexOf(text, startIndex, to, "##/");
+            if (endIndex >= 0) {
+                // Single-line comment block
+                tokens.emit(TokenType.COMMENT, text, startIndex, endIndex + 3, lineNumber, sourceFileName);
 
-            // Skip any comment tokens (shouldn't happen here if patterns are correct)
-            if (tokenValue.startsWith("/-") || tokenValue.startsWith("/##")) {
-                tokens.add(new Token(TokenType.COMMENT, tokenValue, lineNumber, sourceFileName));
-                break;
+                // Process remaining content after comment
+                processLine(text, endIndex + 3, to, lineNumber, sourceFileName, tokens);
+            } else {
+                // Start of multi-line comment
+                tokens.emit(TokenType.COMMENT, text, startIndex, to, lineNumber, sourceFileName);
+                inMultiLineComment = true;
             }
+            return;
+        }
+
+        // Check for single-line comments
+        if (startsWith(text, from, to, "/-")) {
+            tokens.emit(TokenType.COMMENT, text, from, to, lineNumber, sourceFileName);
+            return;
+        }
 
-            TokenType type = determineTokenType(tokenValue);
-            tokens.add(new Token(type, tokenValue, lineNumber, sourceFileName));
+        // Check for Using command (must be at start of line)
+        if (startsWith(text, from, to, "Using")) {
+            processUsingCommand(text.subSequence(from, to).toString(), lineNumber, currentDirectory, tokens);
+            return;
         }
+
+        // Normal line processing
+        processLine(text, from, to, lineNumber, sourceFileName, tokens);
     }
 
-    private TokenType determineTokenType(String token) {
-        // Check for keywords
-        for (String keyword : KEYWORDS) {
-            if (token.equals(keyword)) {
-                return getKeywordTokenType(keyword);
+    private void processLine(CharSequence text, int from, int to, int lineNumber, String sourceFileName, TokenSink tokens) {
+        scanner.reset(text, from, to);
+        while (scanner.next()) {
+            TokenType type = scanner.getType();
+            if (scanner.isWord()) {
+                int symbol = symbols.intern(text, scanner.getStart(), scanner.getEnd());
+                tokens.emitSymbol(type, text, scanner.getStart(), scanner.getEnd(), symbol, lineNumber, sourceFileName);
+                continue;
             }
-        }
+            tokens.emit(type, text, scanner.getStart(), scanner.getEnd(), lineNumber, sourceFileName);
 
-        // Check for operators
-        if (token.matches("[+\\-*/]")) return TokenType.ARITH_OP;
-        if (token.matches("&&|\\|\\||~")) return TokenType.LOGIC_OP;
-        if (token.matches("==|!=|<=|>=|<>|>|<")) return TokenType.REL_OP;
-        if (token.matches("=")) return TokenType.ASSIGN_OP;
-        if (token.equals(".")) return TokenType.ACCESS_OP;
+            // A comment starter ends the useful part of the line
+            if (type == TokenType.COMMENT) break;
+        }
+    }
 
-        // Check for other tokens
-        if (token.matches("[{}()\\[\\]]")) return TokenType.BRACES;
-        if (token.equals(";")) return TokenType.SEMICOLON;
-        if (token.matches("\".*\"")) return TokenType.STRING;
-        if (token.matches("'.*'")) return TokenType.CHARACTER;
-        if (token.matches("\\d+")) return TokenType.CONSTANT;
-        if (token.matches("[a-zA-Z_][a-zA-Z0-9_]*")) return TokenType.IDENTIFIER;
+    private static int indexOf(CharSequence text, int from, int to, String target) {
+        for (int i = from; i <= to - target.length(); i++) {
+            if (startsWith(text, i, to, target)) return i;
+        }
+        return -1;
+    }
 
-        return TokenType.UNKNOWN;
+    private static boolean startsWith(CharSequence text, int from, int to, String prefix) {
+        if (to - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(from + i) != prefix.charAt(i)) return false;
+        }
+        return true;
     }
 
-    private void processUsingCommand(String line, int lineNumber, String currentDirectory, List<Token> tokens) {
-        Pattern usingPattern = Pattern.compile("Using\\s*\\(\\s*\"([^\"]+)\"\\s*\\)\\s*;");
-        Matcher matcher = usingPattern.matcher(line);
+    private void processUsingCommand(String line, int lineNumber, String currentDirectory, TokenSink tokens) {
+        Matcher matcher = USING_PATTERN.matcher(line);
 
         if (matcher.find()) {
             String includedPath = matcher.group(1);
@@ -174,53 +315,185 @@ public class Lexer {
 
             if (includedFile.exists()) {
                 try {
-                    String includedContent = Files.readString(includedFile.toPath());
-                    List<Token> includedTokens = tokenize(includedContent, includedFile.getAbsolutePath());
-                    tokens.addAll(includedTokens);
+                    String path = includedFile.getCanonicalPath();
+                    if (isBeingLexed(path)) {
+                        cyclesFound++;
+                        tokens.emit(new Token(TokenType.ERROR, "Circular Using of " + includedPath, lineNumber, currentDirectory));
+                        return;
+                    }
+
+                    IncludeCache.Entry included = takePrefetched(path);
+                    if (included == null) {
+                        included = includeCache.get(path);
+                    }
+                    if (included == null) {
+                        included = lexIncludedFile(includedFile, path);
+                    }
+                    if (included.hasCycle) {
+                        cyclesFound++;
+                    }
+                    if (!stateStack.isEmpty()) {
+                        stateStack.peek().dependencies.addAll(included.files);
+                    }
+                    tokens.emitAll(included.tokens);
                 } catch (IOException e) {
-                    tokens.add(new Token(TokenType.ERROR, "File not found: " + includedPath, lineNumber, currentDirectory));
+                    tokens.emit(new Token(TokenType.ERROR, "File not found: " + includedPath, lineNumber, currentDirectory));
                 }
             } else {
-                tokens.add(new Token(TokenType.ERROR, "File not found: " + includedPath, lineNumber, currentDirectory));
+                tokens.emit(new Token(TokenType.ERROR, "File not found: " + includedPath, lineNumber, currentDirectory));
+            }
+        }
+    }
+
+    // Lexes an included file on its own, so the resulting run does not depend
+    // on where it is included from and can be reused through the cache
+    private IncludeCache.Entry lexIncludedFile(File includedFile, String path) throws IOException {
+        IncludeCache.FileStamp stamp = new IncludeCache.FileStamp(includedFile);
+        String includedContent = Files.readString(includedFile.toPath());
+        String includedName = includedFile.getAbsolutePath();
+
+        String diskKey = null;
+        if (diskCache != null) {
+            diskKey = diskCache.key(includedName, includedContent);
+            IncludeCache.Entry stored = diskCache.load(diskKey, symbols);
+            if (stored != null) {
+                // The content hash vouches for the file itself, the stamps for what it pulled in
+                List<IncludeCache.FileStamp> files = new ArrayList<>();
+                files.add(stamp);
+                files.addAll(stored.files);
+                IncludeCache.Entry entry = new IncludeCache.Entry(stored.tokens, files, false);
+                includeCache.put(path, entry);
+                return entry;
+            }
+        }
+
+        TokenBuffer included = new TokenBuffer(symbols);
+        LexerState state = new LexerState(currentDirectory, inMultiLineComment, path);
+        state.dependencies.add(stamp);
+        stateStack.push(state);
+        int cyclesBefore = cyclesFound;
+        try {
+            currentDirectory = includedFile.getParent();
+            inMultiLineComment = false;
+            scanSource(includedContent, includedName, included);
+        } finally {
+            stateStack.pop();
+            currentDirectory = state.directory;
+            inMultiLineComment = state.inMultiLineComment;
+        }
+
+        // A run that hit a cycle depends on the include chain it was lexed under
+        boolean hasCycle = cyclesFound != cyclesBefore;
+        IncludeCache.Entry entry = new IncludeCache.Entry(included, state.dependencies, hasCycle);
+        if (!hasCycle) {
+            includeCache.put(path, entry);
+            if (diskKey != null) {
+                diskCache.store(diskKey, included, state.dependencies.subList(1, state.dependencies.size()));
+            }
+        }
+        return entry;
+    }
+
+    // Finds the Using directives of text, following the same comment rules as
+    // processSourceLine, and starts lexing every included file that is not cached yet
+    private Map<String, Future<IncludeCache.Entry>> prefetchIncludes(CharSequence text) {
+        Map<String, Future<IncludeCache.Entry>> futures = new HashMap<>();
+        boolean inComment = inMultiLineComment;
+        int lineStart = 0;
+        while (lineStart < text.length()) {
+            int lineEnd = lineStart;
+            while (lineEnd < text.length() && text.charAt(lineEnd) != '\n') lineEnd++;
+            int from = lineStart;
+            int to = lineEnd;
+            lineStart = lineEnd + 1;
+
+            while (from < to && text.charAt(from) <= ' ') from++;
+            if (inComment) {
+                inComment = indexOf(text, from, to, "##/") < 0;
+                continue;
+            }
+            int startIndex = indexOf(text, from, to, "/##");
+            if (startIndex >= 0) {
+                inComment = indexOf(text, startIndex, to, "##/") < 0;
+                continue;
             }
+            if (!startsWith(text, from, to, "Using")) continue;
+
+            Matcher matcher = USING_PATTERN.matcher(text.subSequence(from, to).toString());
+            if (!matcher.find()) continue;
+            File includedFile = new File(matcher.group(1)).isAbsolute() ?
+                    new File(matcher.group(1)) : new File(currentDirectory, matcher.group(1));
+            try {
+                String path = includedFile.getCanonicalPath();
+                if (!includedFile.exists() || isBeingLexed(path) || futures.containsKey(path)) continue;
+
+                IncludeCache.Entry cached = includeCache.get(path);
+                if (cached != null) {
+                    futures.put(path, CompletableFuture.completedFuture(cached));
+                } else {
+                    Lexer child = childLexer();
+                    futures.put(path, IncludeExecutor.INSTANCE.submit(() -> child.lexIncludedFile(includedFile, path)));
+                }
+            } catch (IOException e) {
+                // Left to processUsingCommand, which reports it in place
+            }
+        }
+        return futures;
+    }
+
+    // A lexer for one prefetched include. It shares the cache and knows the
+    // include chain above it, so cycles are still detected on other threads.
+    private Lexer childLexer() {
+        Lexer child = new Lexer(includeCache, symbols, true);
+        child.diskCache = diskCache;
+        child.sourcePath = sourcePath;
+        child.currentDirectory = currentDirectory;
+        for (LexerState state : stateStack) {
+            child.stateStack.push(new LexerState(state.directory, state.inMultiLineComment, state.path));
         }
+        return child;
     }
 
-    private TokenType getKeywordTokenType(String keyword) {
-        switch (keyword) {
-            case "Division": return TokenType.CLASS;
-            case "InferedFrom": return TokenType.INHERITANCE;
-            case "WhetherDoElse": return TokenType.CONDITION;
-            case "Ire": return TokenType.INTEGER;
-            case "Sire": return TokenType.SINTEGER;
-            case "Clo": return TokenType.CHARACTER;
-            case "SetOfClo": return TokenType.STRING;
-            case "FBU": return TokenType.FLOAT;
-            case "SFBU": return TokenType.SFLOAT;
-            case "None": return TokenType.VOID;
-            case "Logical": return TokenType.BOOLEAN;
-            case "terminatethis": return TokenType.BREAK;
-            case "Rotatewhen":
-            case "Continuewhen": return TokenType.LOOP;
-            case "Replywith": return TokenType.RETURN;
-            case "Seop": return TokenType.STRUCT;
-            case "Check": return TokenType.SWITCH;
-            case "Program": return TokenType.START_STATEMENT;
-            case "End": return TokenType.END_STATEMENT;
-            case "Using": return TokenType.INCLUSION;
-            default: return TokenType.UNKNOWN;
+    private IncludeCache.Entry takePrefetched(String path) throws IOException {
+        Future<IncludeCache.Entry> future = prefetched.get(path);
+        if (future == null) return null;
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while including " + path);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IllegalStateException(e.getCause());
         }
     }
 
+    private boolean isBeingLexed(String path) {
+        if (path.equals(sourcePath)) return true;
+        for (LexerState state : stateStack) {
+            if (path.equals(state.path)) return true;
+        }
+        return false;
+    }
+
     private static class LexerState {
         String directory;
-        int returnLineNumber;
+        boolean inMultiLineComment;
+        String path;
+        List<IncludeCache.FileStamp> dependencies = new ArrayList<>();
 
-        LexerState(String directory, int returnLineNumber) {
+        LexerState(String directory, boolean inMultiLineComment, String path) {
             this.directory = directory;
-            this.returnLineNumber = returnLineNumber;
+            this.inMultiLineComment = inMultiLineComment;
+            this.path = path;
         }
     }
+
+    // Made on first use, so the sequential lexer neither starts executor
+    // threads nor needs a runtime with virtual threads
+    private static class IncludeExecutor {
+        static final ExecutorService INSTANCE = Executors.newVirtualThreadPerTaskExecutor();
+    }
 }
 /*
 public List<Token> tokenize(String input, String sourceFileName) {
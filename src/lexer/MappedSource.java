@@ -0,0 +1,64 @@
+package lexer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A source file mapped into memory with FileChannel.map. The lexer reads it
+// byte by byte through the CharSequence view (each byte is one char, which is
+// enough since every token boundary is ASCII); token text is decoded as UTF-8
+// only when asked for. Identifiers and keywords are the exception: the
+// SymbolTable holds one heap String per distinct word, which tokens refer to
+// by id, so a file with many distinct names is partly copied after all.
+public class MappedSource implements CharSequence {
+    private final ByteBuffer buffer;
+    private final String fileName;
+
+    MappedSource(ByteBuffer buffer, String fileName) {
+        this.buffer = buffer;
+        this.fileName = fileName;
+    }
+
+    public static MappedSource open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to map: " + path);
+            }
+            return new MappedSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), path.toString());
+        }
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public int length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return decode(start, end - start);
+    }
+
+    String decode(int start, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return decode(0, length());
+    }
+}
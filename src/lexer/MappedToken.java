@@ -0,0 +1,20 @@
+package lexer;
+
+// Token whose text stays in the mapped source until getValue() is called
+class MappedToken extends Token {
+    private final MappedSource source;
+    private final int start;
+    private final int length;
+
+    MappedToken(TokenType type, MappedSource source, int start, int length, int lineNumber, String fileName) {
+        super(type, null, lineNumber, fileName);
+        this.source = source;
+        this.start = start;
+        this.length = length;
+    }
+
+    @Override
+    public String getValue() {
+        return source.decode(start, length);
+    }
+}
@@ -0,0 +1,272 @@
+package lexer;
+
+// Character-level scanner used by Lexer for the tokens inside a single line.
+// Each token is classified while it is consumed, so no regex engine is involved.
+class Scanner {
+    // Keywords are stored at a slot computed from their first char, last char
+    // and length. The constants were picked so that no two keywords collide,
+    // so a word needs at most one comparison to be classified.
+    private static final int KEYWORD_SLOTS = 64;
+    private static final String[] KEYWORD_TEXT = new String[KEYWORD_SLOTS];
+    private static final TokenType[] KEYWORD_TYPE = new TokenType[KEYWORD_SLOTS];
+
+    static {
+        addKeyword("Division", TokenType.CLASS);
+        addKeyword("InferedFrom", TokenType.INHERITANCE);
+        addKeyword("WhetherDoElse", TokenType.CONDITION);
+        addKeyword("Ire", TokenType.INTEGER);
+        addKeyword("Sire", TokenType.SINTEGER);
+        addKeyword("Clo", TokenType.CHARACTER);
+        addKeyword("SetOfClo", TokenType.STRING);
+        addKeyword("FBU", TokenType.FLOAT);
+        addKeyword("SFBU", TokenType.SFLOAT);
+        addKeyword("None", TokenType.VOID);
+        addKeyword("Logical", TokenType.BOOLEAN);
+        addKeyword("terminatethis", TokenType.BREAK);
+        addKeyword("Rotatewhen", TokenType.LOOP);
+        addKeyword("Continuewhen", TokenType.LOOP);
+        addKeyword("Replywith", TokenType.RETURN);
+        addKeyword("Seop", TokenType.STRUCT);
+        addKeyword("Check", TokenType.SWITCH);
+        addKeyword("Program", TokenType.START_STATEMENT);
+        addKeyword("End", TokenType.END_STATEMENT);
+        addKeyword("Using", TokenType.INCLUSION);
+    }
+
+    private CharSequence text;
+    private boolean utf8;
+    private int position;
+    private int end;
+
+    private TokenType type;
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean word;  // Identifier or keyword
+
+    public void reset(CharSequence text, int from, int to) {
+        this.text = text;
+        this.utf8 = text instanceof MappedSource;
+        this.position = from;
+        this.end = to;
+        this.type = null;
+    }
+
+    // Moves to the next token of the current range. Characters that cannot
+    // start a token are skipped, just like the old TOKEN_PATTERNS search did.
+    public boolean next() {
+        while (position < end) {
+            int start = position;
+            char c = text.charAt(position);
+
+            if (c == '/') {
+                // Comment starters swallow the rest of the line
+                if (at(start + 1) == '-' || (at(start + 1) == '#' && at(start + 2) == '#')) {
+                    return emit(TokenType.COMMENT, start, at(start + 1) == '-' ? start + 2 : start + 3);
+                }
+                return emit(TokenType.ARITH_OP, start, start + 1);
+            }
+            if (c == '"') {
+                int close = scanQuoted(start + 1, '"');
+                if (close >= 0) return emit(literalType(TokenType.STRING, start, close), start, close + 1);
+                position++;
+                continue;
+            }
+            if (c == '\'') {
+                int close = scanCharacter(start + 1);
+                if (close >= 0) return emit(literalType(TokenType.CHARACTER, start, close), start, close + 1);
+                position++;
+                continue;
+            }
+            if (isDigit(c)) {
+                int i = start + 1;
+                while (i < end && isDigit(text.charAt(i))) i++;
+                return emit(TokenType.CONSTANT, start, i);
+            }
+            if (isIdentifierStart(c)) {
+                int i = start + 1;
+                while (i < end && isIdentifierPart(text.charAt(i))) i++;
+                emit(keywordType(text, start, i), start, i);
+                word = true;
+                return true;
+            }
+
+            char n = at(start + 1);
+            switch (c) {
+                case '&':
+                    if (n == '&') return emit(TokenType.LOGIC_OP, start, start + 2);
+                    break;
+                case '|':
+                    if (n == '|') return emit(TokenType.LOGIC_OP, start, start + 2);
+                    break;
+                case '~':
+                    return emit(TokenType.LOGIC_OP, start, start + 1);
+                case '!':
+                    if (n == '=') return emit(TokenType.REL_OP, start, start + 2);
+                    break;
+                case '=':
+                    if (n == '=') return emit(TokenType.REL_OP, start, start + 2);
+                    return emit(TokenType.ASSIGN_OP, start, start + 1);
+                case '<':
+                case '>':
+                    if (n == '=') return emit(TokenType.REL_OP, start, start + 2);
+                    return emit(TokenType.REL_OP, start, start + 1);
+                case '+':
+                case '-':
+                case '*':
+                    return emit(TokenType.ARITH_OP, start, start + 1);
+                case '.':
+                    return emit(TokenType.ACCESS_OP, start, start + 1);
+                case ';':
+                    return emit(TokenType.SEMICOLON, start, start + 1);
+                case '{':
+                case '}':
+                case '(':
+                case ')':
+                case '[':
+                case ']':
+                    return emit(TokenType.BRACES, start, start + 1);
+                case ',':
+                    // The regex pipeline never classified ',' so keep reporting it as unknown
+                    return emit(TokenType.UNKNOWN, start, start + 1);
+                default:
+                    break;
+            }
+            position++;
+        }
+        type = null;
+        return false;
+    }
+
+    public TokenType getType() {
+        return type;
+    }
+
+    public int getStart() {
+        return tokenStart;
+    }
+
+    public int getEnd() {
+        return tokenEnd;
+    }
+
+    public boolean isWord() {
+        return word;
+    }
+
+    private boolean emit(TokenType type, int start, int end) {
+        this.type = type;
+        this.tokenStart = start;
+        this.tokenEnd = end;
+        this.position = end;
+        this.word = false;
+        return true;
+    }
+
+    private char at(int index) {
+        return index < end ? text.charAt(index) : '\0';
+    }
+
+    // Returns the index of the closing quote, or -1 if the literal is not terminated on this line
+    private int scanQuoted(int from, char quote) {
+        int i = from;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= end || isLineTerminatorAt(i + 1)) return -1;
+                i += 1 + widthAt(i + 1);
+            } else if (c == quote) {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    // A character literal holds exactly one character or one escape sequence
+    private int scanCharacter(int from) {
+        if (from >= end) return -1;
+        char c = text.charAt(from);
+        if (c == '\'') return -1;
+        int close;
+        if (c == '\\') {
+            if (from + 1 >= end || isLineTerminatorAt(from + 1)) return -1;
+            close = from + 1 + widthAt(from + 1);
+        } else {
+            close = from + widthAt(from);
+        }
+        return close < end && text.charAt(close) == '\'' ? close : -1;
+    }
+
+    // Literals spanning a stray line terminator (e.g. a lone '\r') were never
+    // classified by the old pipeline, so they stay unknown here as well
+    private TokenType literalType(TokenType type, int open, int close) {
+        for (int i = open + 1; i < close; i++) {
+            if (isLineTerminatorAt(i)) return TokenType.UNKNOWN;
+        }
+        return type;
+    }
+
+    private boolean isLineTerminatorAt(int index) {
+        char c = text.charAt(index);
+        if (c == '\n' || c == '\r') return true;
+        if (!utf8) return c == '\u0085' || c == '\u2028' || c == '\u2029';
+
+        // U+0085, U+2028 and U+2029 encoded as UTF-8
+        if (c == 0xC2) return at(index + 1) == 0x85;
+        return c == 0xE2 && at(index + 1) == 0x80 && (at(index + 2) == 0xA8 || at(index + 2) == 0xA9);
+    }
+
+    // Number of chars (or UTF-8 bytes) making up the code point at index
+    private int widthAt(int index) {
+        char c = text.charAt(index);
+        int width;
+        if (utf8) {
+            width = c >= 0xF0 && c <= 0xF7 ? 4 : c >= 0xE0 && c <= 0xEF ? 3 : c >= 0xC0 && c <= 0xDF ? 2 : 1;
+        } else {
+            width = Character.isHighSurrogate(c) && Character.isLowSurrogate(at(index + 1)) ? 2 : 1;
+        }
+        return Math.min(width, end - index);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+    static TokenType keywordType(CharSequence text, int start, int end) {
+        int slot = keywordSlot(text, start, end);
+        String keyword = KEYWORD_TEXT[slot];
+        if (keyword != null && keyword.length() == end - start && regionEquals(text, start, keyword)) {
+            return KEYWORD_TYPE[slot];
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private static int keywordSlot(CharSequence text, int start, int end) {
+        return (text.charAt(start) + text.charAt(end - 1) * 13 + (end - start)) & (KEYWORD_SLOTS - 1);
+    }
+
+    private static void addKeyword(String keyword, TokenType type) {
+        int slot = keywordSlot(keyword, 0, keyword.length());
+        if (KEYWORD_TEXT[slot] != null) {
+            throw new IllegalStateException("Keywords " + KEYWORD_TEXT[slot] + " and " + keyword + " share a slot");
+        }
+        KEYWORD_TEXT[slot] = keyword;
+        KEYWORD_TYPE[slot] = type;
+    }
+
+    private static boolean regionEquals(CharSequence text, int start, String keyword) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (text.charAt(start + i) != keyword.charAt(i)) return false;
+        }
+        return true;
+    }
+}
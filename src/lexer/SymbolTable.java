@@ -0,0 +1,103 @@
+package lexer;
+
+import java.util.Arrays;
+
+// Interns identifier and keyword text for a compilation session. Every
+// distinct word gets a dense id, so repeated words share one String and can
+// be compared or used as array indexes instead of being hashed again.
+public class SymbolTable {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private volatile String[] names = new String[INITIAL_CAPACITY];
+    private int[] slots = new int[INITIAL_CAPACITY * 2];  // Open addressing; id + 1, or 0 when free
+    private int size;
+
+    // Returns the id of text[start, end), adding it if it is new. Words are
+    // ASCII, so the chars of a MappedSource can be taken as they are.
+    public synchronized int intern(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            String name = names[slots[slot] - 1];
+            if (name.hashCode() == hash && regionEquals(name, text, start, end)) {
+                return slots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return add(new StringBuilder(end - start).append(text, start, end).toString(), slot);
+    }
+
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    // Returns the id of name, or -1 if it was never interned
+    public synchronized int lookup(String name) {
+        int mask = slots.length - 1;
+        for (int slot = name.hashCode() & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (names[slots[slot] - 1].equals(name)) {
+                return slots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    public String getName(int id) {
+        return names[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int add(String name, int slot) {
+        int id = size;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+        }
+        names[id] = name;
+        slots[slot] = id + 1;
+        size++;
+
+        // Keep the table at most half full
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        int[] grown = new int[slots.length * 2];
+        int mask = grown.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = names[id].hashCode() & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = id + 1;
+        }
+        slots = grown;
+    }
+
+    // Same value as String.hashCode, so ranges and Strings find the same slot
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static boolean regionEquals(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
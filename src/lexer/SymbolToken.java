@@ -0,0 +1,17 @@
+package lexer;
+
+// Identifier or keyword token that keeps only its SymbolTable id; the text is
+// looked up in the table when getValue() is called
+class SymbolToken extends Token {
+    private final SymbolTable symbols;
+
+    SymbolToken(TokenType type, SymbolTable symbols, int symbol, int lineNumber, String fileName) {
+        super(type, null, symbol, lineNumber, fileName);
+        this.symbols = symbols;
+    }
+
+    @Override
+    public String getValue() {
+        return symbols.getName(getSymbol());
+    }
+}
@@ -3,12 +3,19 @@ package lexer;
 public class Token {
     private final TokenType type;
     private final String value;
+    private final int symbol;
     private final int lineNumber;
     private String fileName;
 
     public Token(TokenType type, String value, int lineNumber, String fileName) {
+        this(type, value, -1, lineNumber, fileName);
+    }
+
+    // symbol is the SymbolTable id of an identifier or keyword, -1 otherwise
+    public Token(TokenType type, String value, int symbol, int lineNumber, String fileName) {
         this.type = type;
         this.value = value;
+        this.symbol = symbol;
         this.lineNumber = lineNumber;
         this.fileName = fileName;
     }
@@ -21,6 +28,10 @@ public class Token {
         return value;
     }
 
+    public int getSymbol() {
+        return symbol;
+    }
+
     public int getLineNumber() {
         return lineNumber;
     }
@@ -28,7 +39,7 @@ public class Token {
     @Override
     public String toString() {
         return String.format("Line #: %d Token Text: %s Token Type: %s",
-                lineNumber, value, type.getDescription());
+                lineNumber, getValue(), type.getDescription());
     }
     public String getFileName() {
         return fileName;
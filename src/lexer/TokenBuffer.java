@@ -0,0 +1,399 @@
+package lexer;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact token storage: one entry per token spread over parallel primitive
+// arrays (type ordinal, start, length, symbol, line, file id). Token text stays
+// in the source it was lexed from; identifiers and keywords are read back
+// through their SymbolTable id. Token objects are only built by getToken/asList.
+public class TokenBuffer implements TokenCursor, TokenSink {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int INITIAL_CAPACITY = 256;
+
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int[] symbolIds = new int[INITIAL_CAPACITY];
+    private int[] lines = new int[INITIAL_CAPACITY];
+    private int[] files = new int[INITIAL_CAPACITY];
+    private int size;
+
+    // File id -> source text and file name. A token with a negative length
+    // has no source text; its start indexes literals instead.
+    private final List<CharSequence> sources = new ArrayList<>();
+    private final List<String> fileNames = new ArrayList<>();
+    private final Map<SourceKey, Integer> fileIds = new HashMap<>();
+    private final List<String> literals = new ArrayList<>();
+    private int lastFileId = -1;
+    // Sizes after the last compact. Edits keep adding sources and literals
+    // (every edited line is a new String); compact drops the ones no token
+    // refers to any more.
+    private int liveSources;
+    private int liveLiterals;
+    private final SymbolTable symbols;
+
+    public TokenBuffer() {
+        this(new SymbolTable());
+    }
+
+    public TokenBuffer(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    @Override
+    public void emit(TokenType type, CharSequence text, int start, int end, int lineNumber, String fileName) {
+        add(type, start, end - start, -1, lineNumber, fileId(text, fileName));
+    }
+
+    @Override
+    public void emitSymbol(TokenType type, CharSequence text, int start, int end, int symbol, int lineNumber, String fileName) {
+        add(type, start, end - start, symbol, lineNumber, fileId(text, fileName));
+    }
+
+    @Override
+    public void emit(Token token) {
+        literals.add(token.getValue());
+        add(token.getType(), literals.size() - 1, -1, -1, token.getLineNumber(), fileId(null, token.getFileName()));
+    }
+
+    // A buffer that takes over the columns read by DiskTokenCache. Token text
+    // is given as ids into strings, which become the literals, and file names
+    // as ids into fileNames; words have the top bit of their type set.
+    static TokenBuffer fromColumns(SymbolTable symbols, String[] strings, String[] fileNames,
+                                   byte[] types, int[] values, int[] lines, int[] files) {
+        TokenBuffer buffer = new TokenBuffer(symbols);
+        buffer.literals.addAll(Arrays.asList(strings));
+        int[] fileIds = new int[fileNames.length];
+        for (int i = 0; i < fileNames.length; i++) {
+            fileIds[i] = buffer.fileId(null, fileNames[i]);
+        }
+        int[] symbolOf = new int[strings.length];
+        Arrays.fill(symbolOf, -1);
+
+        int size = types.length;
+        int[] lengths = new int[size];
+        int[] symbolIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            int type = types[i] & 0x7F;
+            int value = values[i];
+            if (type >= TYPES.length || value < 0 || value >= strings.length || files[i] < 0 || files[i] >= fileIds.length) {
+                throw new IllegalArgumentException("Token " + i + " is out of range");
+            }
+            int symbol = -1;
+            if ((types[i] & 0x80) != 0) {
+                if (symbolOf[value] < 0) {
+                    symbolOf[value] = symbols.intern(strings[value]);
+                }
+                symbol = symbolOf[value];
+            }
+            types[i] = (byte) type;
+            lengths[i] = -1;
+            symbolIds[i] = symbol;
+            files[i] = fileIds[files[i]];
+        }
+        buffer.types = types;
+        buffer.starts = values;
+        buffer.lengths = lengths;
+        buffer.symbolIds = symbolIds;
+        buffer.lines = lines;
+        buffer.files = files;
+        buffer.size = size;
+        return buffer;
+    }
+
+    @Override
+    public void emitAll(TokenBuffer run) {
+        replace(size, size, run);
+    }
+
+    // Replaces tokens [from, to) with the tokens of run
+    void replace(int from, int to, TokenBuffer run) {
+        int[] runFileIds = new int[run.sources.size()];
+        for (int i = 0; i < runFileIds.length; i++) {
+            runFileIds[i] = fileId(run.sources.get(i), run.fileNames.get(i));
+        }
+        int literalBase = literals.size();
+        literals.addAll(run.literals);
+
+        int newSize = size - (to - from) + run.size;
+        ensureCapacity(newSize);
+        if (run.size != to - from) {
+            int tail = size - to;
+            System.arraycopy(types, to, types, from + run.size, tail);
+            System.arraycopy(starts, to, starts, from + run.size, tail);
+            System.arraycopy(lengths, to, lengths, from + run.size, tail);
+            System.arraycopy(symbolIds, to, symbolIds, from + run.size, tail);
+            System.arraycopy(lines, to, lines, from + run.size, tail);
+            System.arraycopy(files, to, files, from + run.size, tail);
+        }
+        for (int i = 0; i < run.size; i++) {
+            int start = run.lengths[i] < 0 ? literalBase + run.starts[i] : run.starts[i];
+            int symbol = run.symbolIds[i];
+            if (symbol >= 0 && run.symbols != symbols) {
+                // Lexed under another session's table
+                symbol = symbols.intern(run.symbols.getName(symbol));
+            }
+            set(from + i, run.types[i], start, run.lengths[i], symbol, run.lines[i], runFileIds[run.files[i]]);
+        }
+        size = newSize;
+        // Compacting reads every token, so it waits until about an eighth of
+        // the buffer's size has been added since the last time
+        int slack = Math.max(64, size / 8);
+        if (sources.size() - liveSources > slack || literals.size() - liveLiterals > slack) {
+            compact();
+        }
+    }
+
+    // Drops the sources and literals no token refers to and renumbers the rest
+    private void compact() {
+        int[] newFileIds = new int[sources.size()];
+        int[] newLiterals = new int[literals.size()];
+        Arrays.fill(newFileIds, -1);
+        Arrays.fill(newLiterals, -1);
+        for (int i = 0; i < size; i++) {
+            newFileIds[files[i]] = 0;
+            if (lengths[i] < 0) {
+                newLiterals[starts[i]] = 0;
+            }
+        }
+
+        List<CharSequence> keptSources = new ArrayList<>();
+        List<String> keptNames = new ArrayList<>();
+        fileIds.clear();
+        for (int i = 0; i < newFileIds.length; i++) {
+            if (newFileIds[i] == 0) {
+                newFileIds[i] = keptSources.size();
+                fileIds.put(new SourceKey(sources.get(i), fileNames.get(i)), keptSources.size());
+                keptSources.add(sources.get(i));
+                keptNames.add(fileNames.get(i));
+            }
+        }
+        List<String> keptLiterals = new ArrayList<>();
+        for (int i = 0; i < newLiterals.length; i++) {
+            if (newLiterals[i] == 0) {
+                newLiterals[i] = keptLiterals.size();
+                keptLiterals.add(literals.get(i));
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            files[i] = newFileIds[files[i]];
+            if (lengths[i] < 0) {
+                starts[i] = newLiterals[starts[i]];
+            }
+        }
+        sources.clear();
+        sources.addAll(keptSources);
+        fileNames.clear();
+        fileNames.addAll(keptNames);
+        literals.clear();
+        literals.addAll(keptLiterals);
+        lastFileId = -1;
+        liveSources = sources.size();
+        liveLiterals = literals.size();
+    }
+
+    // Points the tokens of [from, to) that were lexed from source at target,
+    // where their text starts delta characters later
+    void rebase(int from, int to, CharSequence source, CharSequence target, int delta) {
+        for (int i = from; i < to; i++) {
+            if (lengths[i] >= 0 && sources.get(files[i]) == source) {
+                starts[i] += delta;
+                files[i] = fileId(target, fileNames.get(files[i]));
+            }
+        }
+    }
+
+    // Moves the line numbers of tokens [from, to) by delta
+    void shiftLines(int from, int to, int delta) {
+        for (int i = from; i < to; i++) {
+            lines[i] += delta;
+        }
+    }
+
+    private void add(TokenType type, int start, int length, int symbol, int lineNumber, int fileId) {
+        ensureCapacity(size + 1);
+        set(size, (byte) type.ordinal(), start, length, symbol, lineNumber, fileId);
+        size++;
+    }
+
+    private void set(int index, byte type, int start, int length, int symbol, int lineNumber, int fileId) {
+        types[index] = type;
+        starts[index] = start;
+        lengths[index] = length;
+        symbolIds[index] = symbol;
+        lines[index] = lineNumber;
+        files[index] = fileId;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > types.length) {
+            int capacity = Math.max(needed, types.length * 2);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            symbolIds = Arrays.copyOf(symbolIds, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            files = Arrays.copyOf(files, capacity);
+        }
+    }
+
+    private int fileId(CharSequence text, String fileName) {
+        // Tokens arrive in runs from the same file, so the last id almost always matches
+        if (lastFileId >= 0 && sources.get(lastFileId) == text && sameName(fileNames.get(lastFileId), fileName)) {
+            return lastFileId;
+        }
+        SourceKey key = new SourceKey(text, fileName);
+        Integer id = fileIds.get(key);
+        if (id == null) {
+            id = sources.size();
+            fileIds.put(key, id);
+            sources.add(text);
+            fileNames.add(fileName);
+        }
+        return lastFileId = id;
+    }
+
+    private static boolean sameName(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    // A source text by identity, as token starts are offsets into that very
+    // object, together with the file name it was lexed under
+    private static final class SourceKey {
+        private final CharSequence text;
+        private final String fileName;
+
+        SourceKey(CharSequence text, String fileName) {
+            this.text = text;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof SourceKey)) {
+                return false;
+            }
+            SourceKey key = (SourceKey) other;
+            return text == key.text && sameName(fileName, key.fileName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(text) + (fileName == null ? 0 : fileName.hashCode());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    @Override
+    public boolean hasToken(int index) {
+        return index >= 0 && index < size;
+    }
+
+    @Override
+    public TokenType getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    @Override
+    public String getValue(int index) {
+        if (lengths[index] < 0) {
+            return literals.get(starts[index]);
+        }
+        if (symbolIds[index] >= 0) {
+            return symbols.getName(symbolIds[index]);
+        }
+        CharSequence source = sources.get(files[index]);
+        if (source instanceof MappedSource) {
+            return ((MappedSource) source).decode(starts[index], lengths[index]);
+        }
+        return source.subSequence(starts[index], starts[index] + lengths[index]).toString();
+    }
+
+    @Override
+    public boolean valueEquals(int index, String text) {
+        if (lengths[index] < 0) {
+            return literals.get(starts[index]).equals(text);
+        }
+        CharSequence source = sources.get(files[index]);
+        // Mapped sources are compared byte by byte, which only holds for ASCII text
+        if (source instanceof MappedSource && !isAscii(text)) {
+            return getValue(index).equals(text);
+        }
+        if (lengths[index] != text.length()) {
+            return false;
+        }
+        int start = starts[index];
+        for (int i = 0; i < text.length(); i++) {
+            if (source.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getSymbol(int index) {
+        return symbolIds[index];
+    }
+
+    @Override
+    public int getLineNumber(int index) {
+        return lines[index];
+    }
+
+    @Override
+    public String getFileName(int index) {
+        return fileNames.get(files[index]);
+    }
+
+    public Token getToken(int index) {
+        if (symbolIds[index] >= 0) {
+            return new SymbolToken(getType(index), symbols, symbolIds[index], lines[index], getFileName(index));
+        }
+        if (lengths[index] >= 0 && sources.get(files[index]) instanceof MappedSource) {
+            return new MappedToken(getType(index), (MappedSource) sources.get(files[index]),
+                    starts[index], lengths[index], lines[index], getFileName(index));
+        }
+        return new Token(getType(index), getValue(index), lines[index], getFileName(index));
+    }
+
+    // Read-only List view; each get() builds a fresh Token
+    public List<Token> asList() {
+        return new AbstractList<Token>() {
+            @Override
+            public Token get(int index) {
+                if (!hasToken(index)) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                }
+                return getToken(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
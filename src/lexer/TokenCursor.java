@@ -0,0 +1,22 @@
+package lexer;
+
+// Random access to tokens by index, used by the parser so it can read its
+// input without materializing Token objects. Indexes past the end of the
+// input are valid and report hasToken == false.
+public interface TokenCursor {
+    boolean hasToken(int index);
+
+    TokenType getType(int index);
+
+    String getValue(int index);
+
+    // Compares the token text without building a String where possible
+    boolean valueEquals(int index, String text);
+
+    // SymbolTable id of an identifier or keyword, -1 for other tokens
+    int getSymbol(int index);
+
+    int getLineNumber(int index);
+
+    String getFileName(int index);
+}
@@ -0,0 +1,53 @@
+package lexer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Collects lexer output as Token objects
+class TokenList implements TokenSink {
+    private final List<Token> tokens = new ArrayList<>();
+    private final SymbolTable symbols;
+
+    TokenList(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    @Override
+    public void emit(TokenType type, CharSequence text, int start, int end, int lineNumber, String fileName) {
+        if (text instanceof MappedSource) {
+            tokens.add(new MappedToken(type, (MappedSource) text, start, end - start, lineNumber, fileName));
+        } else {
+            tokens.add(new Token(type, text.subSequence(start, end).toString(), lineNumber, fileName));
+        }
+    }
+
+    @Override
+    public void emitSymbol(TokenType type, CharSequence text, int start, int end, int symbol, int lineNumber, String fileName) {
+        tokens.add(new SymbolToken(type, symbols, symbol, lineNumber, fileName));
+    }
+
+    @Override
+    public void emit(Token token) {
+        tokens.add(token);
+    }
+
+    @Override
+    public void emitAll(TokenBuffer run) {
+        for (int i = 0; i < run.size(); i++) {
+            int symbol = run.getSymbol(i);
+            if (symbol >= 0 && run.getSymbols() != symbols) {
+                // Lexed under another session's table
+                symbol = symbols.intern(run.getSymbols().getName(symbol));
+            }
+            if (symbol >= 0) {
+                tokens.add(new SymbolToken(run.getType(i), symbols, symbol, run.getLineNumber(i), run.getFileName(i)));
+            } else {
+                tokens.add(run.getToken(i));
+            }
+        }
+    }
+
+    public List<Token> getTokens() {
+        return tokens;
+    }
+}
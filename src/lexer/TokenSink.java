@@ -0,0 +1,16 @@
+package lexer;
+
+// Receives tokens as the lexer produces them
+interface TokenSink {
+    // A token whose text is text[start, end)
+    void emit(TokenType type, CharSequence text, int start, int end, int lineNumber, String fileName);
+
+    // An identifier or keyword that was interned as symbol
+    void emitSymbol(TokenType type, CharSequence text, int start, int end, int symbol, int lineNumber, String fileName);
+
+    // A token that is not backed by source text, e.g. an include error
+    void emit(Token token);
+
+    // A previously lexed run, e.g. an included file taken from the cache
+    void emitAll(TokenBuffer tokens);
+}
@@ -0,0 +1,109 @@
+package lexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Iterator over the tokens of a source that is read in fixed-size chunks.
+// Only the tokens of the current line are held in memory at any time.
+public class TokenStream implements Iterator<Token>, Closeable {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Lexer lexer;
+    private final Reader input;
+    private final String sourceFileName;
+
+    private final char[] chunk = new char[CHUNK_SIZE];
+    private int chunkPosition;
+    private int chunkLength;
+    private boolean endOfInput;
+
+    private final StringBuilder line = new StringBuilder();
+    private int lineNumber;
+    private int pendingBlankLines;
+
+    private final TokenList lineTokens;
+    private int lineTokenIndex;
+
+    TokenStream(Lexer lexer, Reader input, String sourceFileName) {
+        this.lexer = lexer;
+        this.input = input;
+        this.sourceFileName = sourceFileName;
+        this.lineTokens = new TokenList(lexer.getSymbols());
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (lineTokenIndex >= lineTokens.getTokens().size()) {
+                lineTokens.getTokens().clear();
+                lineTokenIndex = 0;
+                if (!readLine()) {
+                    return false;
+                }
+                lineNumber++;
+
+                // tokenize drops trailing empty lines (String.split), so blank
+                // lines inside an open comment are only emitted once more text follows
+                if (line.length() == 0 && lexer.isInMultiLineComment()) {
+                    pendingBlankLines++;
+                    continue;
+                }
+                for (int i = pendingBlankLines; i > 0; i--) {
+                    lexer.processSourceLine("", 0, 0, lineNumber - i, sourceFileName, lineTokens);
+                }
+                pendingBlankLines = 0;
+                lexer.processSourceLine(line, 0, line.length(), lineNumber, sourceFileName, lineTokens);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Token next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return lineTokens.getTokens().get(lineTokenIndex++);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    // Reads up to the next '\n' into line. Returns false once the input is
+    // exhausted and no characters are left for a final line.
+    private boolean readLine() throws IOException {
+        line.setLength(0);
+        while (true) {
+            if (chunkPosition >= chunkLength) {
+                if (endOfInput) {
+                    return line.length() > 0;
+                }
+                chunkLength = input.read(chunk);
+                chunkPosition = 0;
+                if (chunkLength < 0) {
+                    chunkLength = 0;
+                    endOfInput = true;
+                }
+                continue;
+            }
+
+            int start = chunkPosition;
+            while (chunkPosition < chunkLength && chunk[chunkPosition] != '\n') {
+                chunkPosition++;
+            }
+            line.append(chunk, start, chunkPosition - start);
+            if (chunkPosition < chunkLength) {
+                chunkPosition++;  // Skip '\n'
+                return true;
+            }
+        }
+    }
+}
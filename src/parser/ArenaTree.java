@@ -0,0 +1,229 @@
+package parser;
+
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Parse tree kept in int arrays instead of node objects. A node is an int
+// handle, -1 meaning none; nodes are numbered in document order, so node 0 is
+// the ROOT and a loop over 0..size() visits the tree depth first. Leaves keep
+// their token index and read value, line and file from the tokens, which have
+// to stay readable at any index. toParseTree() gives the object tree.
+public class ArenaTree implements TreeBuilder {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final TokenCursor tokens;
+    private final List<String> ruleNames = new ArrayList<>();   // Kind TYPES.length + i
+    private final Map<String, Integer> ruleKinds = new HashMap<>();
+
+    private int[] kinds = new int[256];    // TokenType ordinal of a leaf, or rule kind
+    private int[] tokenIndexes = new int[256];  // Leaf token or first token of a rule; ~index if it has no line
+    private int[] firstChildren = new int[256];
+    private int[] nextSiblings = new int[256];
+    private int[] parents = new int[256];
+    private int size;
+
+    // Open rules while building, with their last child so far
+    private int[] open = new int[64];
+    private int[] lastChildren = new int[64];
+    private int depth;
+
+    ArenaTree(TokenCursor tokens) {
+        this.tokens = tokens;
+        add(ruleKind("ROOT"), -1);
+        open[0] = 0;
+        lastChildren[0] = -1;
+        depth = 1;
+    }
+
+    @Override
+    public void enterRule(String rule, int lineNumber, String fileName) {
+        // A rule entered without a current token has no line, which startsAt keeps
+        int node = add(ruleKind(rule), lineNumber < 0 ? -1 : 0);
+        if (depth == open.length) {
+            open = Arrays.copyOf(open, depth * 2);
+            lastChildren = Arrays.copyOf(lastChildren, depth * 2);
+        }
+        open[depth] = node;
+        lastChildren[depth] = -1;
+        depth++;
+    }
+
+    @Override
+    public void exitRule(String rule) {
+        if (depth > 1) {
+            depth--;
+        }
+    }
+
+    @Override
+    public void matched(TokenType type, TokenCursor tokens, int index) {
+        add(type.ordinal(), index);
+    }
+
+    @Override
+    public void startsAt(int index) {
+        int node = open[depth - 1];
+        tokenIndexes[node] = tokenIndexes[node] < 0 ? ~index : index;
+    }
+
+    @Override
+    public void endsAt(int index) {
+    }
+
+    private int add(int kind, int token) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            tokenIndexes = Arrays.copyOf(tokenIndexes, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+        }
+        int node = size++;
+        kinds[node] = kind;
+        tokenIndexes[node] = token;
+        firstChildren[node] = -1;
+        nextSiblings[node] = -1;
+        if (depth == 0) {
+            parents[node] = -1;  // The ROOT
+            return node;
+        }
+
+        int parent = open[depth - 1];
+        parents[node] = parent;
+        if (lastChildren[depth - 1] < 0) {
+            firstChildren[parent] = node;
+        } else {
+            nextSiblings[lastChildren[depth - 1]] = node;
+        }
+        lastChildren[depth - 1] = node;
+        return node;
+    }
+
+    private int ruleKind(String rule) {
+        Integer kind = ruleKinds.get(rule);
+        if (kind == null) {
+            kind = TYPES.length + ruleNames.size();
+            ruleNames.add(rule);
+            ruleKinds.put(rule, kind);
+        }
+        return kind;
+    }
+
+    // Drops the spare capacity once the tree is complete
+    void trim() {
+        kinds = Arrays.copyOf(kinds, size);
+        tokenIndexes = Arrays.copyOf(tokenIndexes, size);
+        firstChildren = Arrays.copyOf(firstChildren, size);
+        nextSiblings = Arrays.copyOf(nextSiblings, size);
+        parents = Arrays.copyOf(parents, size);
+        open = new int[1];
+        lastChildren = new int[1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getRoot() {
+        return 0;
+    }
+
+    public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    public boolean isRuleNode(int node) {
+        return kinds[node] >= TYPES.length;
+    }
+
+    // The matched token type of a leaf, null for a rule
+    public TokenType getTokenType(int node) {
+        return isRuleNode(node) ? null : TYPES[kinds[node]];
+    }
+
+    // Rule name, or the token type description of a leaf, as in ParseTreeNode
+    public String getName(int node) {
+        int kind = kinds[node];
+        return kind >= TYPES.length ? ruleNames.get(kind - TYPES.length) : TYPES[kind].getDescription();
+    }
+
+    public int getToken(int node) {
+        int token = tokenIndexes[node];
+        return token < 0 ? ~token : token;
+    }
+
+    // Token text of a leaf, null for a rule
+    public String getValue(int node) {
+        return isRuleNode(node) ? null : tokens.getValue(tokenIndexes[node]);
+    }
+
+    public int getSymbol(int node) {
+        return isRuleNode(node) ? -1 : tokens.getSymbol(tokenIndexes[node]);
+    }
+
+    public int getLineNumber(int node) {
+        int token = tokenIndexes[node];
+        return token >= 0 && tokens.hasToken(token) ? tokens.getLineNumber(token) : -1;
+    }
+
+    public String getFileName(int node) {
+        int token = tokenIndexes[node];
+        return token >= 0 && tokens.hasToken(token) ? tokens.getFileName(token) : null;
+    }
+
+    public String toString() {
+        return toString(false);
+    }
+
+    public String toStringWithFileInfo() {
+        return toString(true);
+    }
+
+    private String toString(boolean showFileInfo) {
+        return TreeWriter.toString(this, showFileInfo);
+    }
+
+    // Builds the ParseTreeNode objects for code that wants them. Rules get
+    // their first token, and ParseTree ends them after their last child.
+    public ParseTree toParseTree() {
+        ParseTree tree = new ParseTree();
+        int node = getFirstChild(0);
+        while (node >= 0) {
+            if (isRuleNode(node)) {
+                tree.enterRule(getName(node), getLineNumber(node), getFileName(node));
+                tree.startsAt(getToken(node));
+                if (firstChildren[node] >= 0) {
+                    node = firstChildren[node];
+                    continue;
+                }
+                tree.exitRule(getName(node));
+            } else {
+                tree.matched(getTokenType(node), tokens, tokenIndexes[node]);
+            }
+            // Leave the finished rules until one has a next sibling
+            while (node > 0 && nextSiblings[node] < 0) {
+                node = parents[node];
+                if (node > 0) {
+                    tree.exitRule(getName(node));
+                }
+            }
+            node = node > 0 ? nextSiblings[node] : -1;
+        }
+        return tree;
+    }
+}
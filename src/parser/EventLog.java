@@ -0,0 +1,74 @@
+package parser;
+
+import error.CompilerError;
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+import java.util.Arrays;
+
+// Records parse events so they can be passed on later, e.g. to the listeners
+// of a parallel parse once the Divisions are joined in source order
+class EventLog implements ParseListener {
+    private static final int ENTER = 0;
+    private static final int EXIT = 1;
+    private static final int MATCHED = 2;
+    private static final int ERROR = 3;
+
+    private byte[] kinds = new byte[64];
+    private int[] numbers = new int[64];     // Line of a rule, or type and token index of a match
+    private Object[] objects = new Object[64];  // Rule name and file name, or the error
+    private int size;
+
+    @Override
+    public void enterRule(String rule, int lineNumber, String fileName) {
+        add(ENTER, lineNumber, new String[]{rule, fileName});
+    }
+
+    @Override
+    public void exitRule(String rule) {
+        add(EXIT, 0, rule);
+    }
+
+    @Override
+    public void matched(TokenType type, TokenCursor tokens, int index) {
+        add(MATCHED, index, type);
+    }
+
+    @Override
+    public void error(CompilerError error) {
+        add(ERROR, 0, error);
+    }
+
+    // Passes the events on; matched tokens are looked up in tokens again
+    void replay(ParseListener listener, TokenCursor tokens) {
+        for (int i = 0; i < size; i++) {
+            switch (kinds[i]) {
+                case ENTER:
+                    String[] names = (String[]) objects[i];
+                    listener.enterRule(names[0], numbers[i], names[1]);
+                    break;
+                case EXIT:
+                    listener.exitRule((String) objects[i]);
+                    break;
+                case MATCHED:
+                    listener.matched((TokenType) objects[i], tokens, numbers[i]);
+                    break;
+                default:
+                    listener.error((CompilerError) objects[i]);
+                    break;
+            }
+        }
+    }
+
+    private void add(int kind, int number, Object object) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            numbers = Arrays.copyOf(numbers, size * 2);
+            objects = Arrays.copyOf(objects, size * 2);
+        }
+        kinds[size] = (byte) kind;
+        numbers[size] = number;
+        objects[size] = object;
+        size++;
+    }
+}
@@ -0,0 +1,151 @@
+package parser;
+
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+import java.util.Arrays;
+import java.util.Set;
+
+// Builds a ParseTree with flattened expressions: an operator rule that
+// holds a single operand is left out and the operand takes its place, so
+// "a + b * c" is an Expression over a, + and a Term over b, * and c instead
+// of a chain of Terms and Factors above each name. The outermost rule of an
+// expression is always kept, and rules outside expressions go to the tree
+// as they come. An expression waits on a pending stack, as in GreenBuilder,
+// until its outermost rule closes and its shape is known.
+class FlatExpressionTree implements TreeBuilder {
+    private final ParseTree tree = new ParseTree();
+    private final Set<String> operatorRules;
+
+    // Open rules of the expression
+    private ParseTreeNode[] open = new ParseTreeNode[64];
+    private int[] openPending = new int[64];  // First pending child of the rule
+    private int depth;
+
+    private ParseTreeNode[] pending = new ParseTreeNode[64];
+    private int pendingSize;
+
+    FlatExpressionTree(Set<String> operatorRules) {
+        this.operatorRules = operatorRules;
+    }
+
+    ParseTree getTree() {
+        return tree;
+    }
+
+    @Override
+    public void enterRule(String rule, int lineNumber, String fileName) {
+        if (depth == 0 && !operatorRules.contains(rule)) {
+            tree.enterRule(rule, lineNumber, fileName);
+            return;
+        }
+        if (depth == open.length) {
+            open = Arrays.copyOf(open, depth * 2);
+            openPending = Arrays.copyOf(openPending, depth * 2);
+        }
+        open[depth] = new ParseTreeNode(rule, null, lineNumber, fileName);
+        openPending[depth] = pendingSize;
+        depth++;
+    }
+
+    @Override
+    public void exitRule(String rule) {
+        if (depth == 0) {
+            tree.exitRule(rule);
+            return;
+        }
+        depth--;
+        ParseTreeNode node = open[depth];
+        open[depth] = null;
+        int from = openPending[depth];
+        // A lone operand stands for its operator rule, except at the top of
+        // the expression
+        if (depth == 0 || pendingSize - from != 1 || !operatorRules.contains(node.getName())) {
+            for (int i = from; i < pendingSize; i++) {
+                node.addChild(pending[i]);
+            }
+            Arrays.fill(pending, from, pendingSize, null);
+            pendingSize = from;
+            addPending(node);
+        }
+        if (depth == 0) {
+            replay(pending[0]);
+            pending[0] = null;
+            pendingSize = 0;
+        }
+    }
+
+    @Override
+    public void matched(TokenType type, TokenCursor tokens, int index) {
+        if (depth == 0) {
+            tree.matched(type, tokens, index);
+            return;
+        }
+        ParseTreeNode leaf = new ParseTreeNode(type.getDescription(), tokens.getValue(index), tokens.getSymbol(index),
+                tokens.getLineNumber(index), tokens.getFileName(index));
+        leaf.firstToken = index;
+        leaf.endToken = index + 1;
+        addPending(leaf);
+    }
+
+    @Override
+    public void startsAt(int index) {
+        if (depth == 0) {
+            tree.startsAt(index);
+        } else {
+            open[depth - 1].firstToken = index;
+        }
+    }
+
+    @Override
+    public void endsAt(int index) {
+        if (depth == 0) {
+            tree.endsAt(index);
+        } else {
+            open[depth - 1].endToken = index;
+        }
+    }
+
+    private void addPending(ParseTreeNode node) {
+        if (pendingSize == pending.length) {
+            pending = Arrays.copyOf(pending, pendingSize * 2);
+        }
+        pending[pendingSize++] = node;
+    }
+
+    // Sends a finished expression to the tree, with an explicit stack since
+    // expressions nest as deep as the input does
+    private void replay(ParseTreeNode expression) {
+        ParseTreeNode[] nodes = {expression};
+        int[] next = new int[1];
+        int top = 0;
+        enter(expression);
+        while (top >= 0) {
+            ParseTreeNode node = nodes[top];
+            if (next[top] == node.getChildren().size()) {
+                tree.endsAt(node.endToken);
+                tree.exitRule(node.getName());
+                nodes[top--] = null;
+                continue;
+            }
+            ParseTreeNode child = node.getChildren().get(next[top]++);
+            if (!child.isRuleNode()) {
+                tree.addLeaf(child.getName(), child.getValue(), child.getSymbol(), child.getLineNumber(),
+                        child.getFileName(), child.firstToken);
+                continue;
+            }
+            if (++top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                next = Arrays.copyOf(next, top * 2);
+            }
+            nodes[top] = child;
+            next[top] = 0;
+            enter(child);
+        }
+    }
+
+    private void enter(ParseTreeNode rule) {
+        tree.enterRule(rule.getName(), rule.getLineNumber(), rule.getFileName());
+        tree.startsAt(rule.firstToken);
+    }
+}
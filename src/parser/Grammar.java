@@ -0,0 +1,487 @@
+package parser;
+
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The language as data, for TableParser. Productions are written over token
+// types, with braces, arithmetic operators and the two loop keywords split by
+// their text. A rule creates a tree node named after itself; a helper does not,
+// and stands for the loops and optional parts of the recursive Parser.
+//
+// An alternative starting with "else", or the only alternative of a rule, is
+// taken when no table entry matches, like the Parser methods that commit to a
+// production and let match() report the error. An alternative ending in
+// "when t1 t2 ..." is only predicted on those terminals.
+//
+// A cell that two productions claim is decided in one of two ways. A resolver
+// looks further ahead the same way the Parser predicates do (ClassItem,
+// Statement, localDeclaration, Comment, commentLines). A fixed preference
+// always takes the same production, as the Parser does, so the grammar is
+// not LL(1) there:
+//   ParameterList      VOID, rather than a parameter of type VOID
+//   ArgumentList       empty before '(', so f((1)) is an error
+//   localDeclarations  another declaration, so declarations come first
+//   replyValue         a lone IDENTIFIER, rather than an Expression
+class Grammar {
+    // Symbols in production bodies and on the parse stack, besides the
+    // terminal and nonterminal ids
+    static final int SKIP = -2;       // Consumes one token without a node
+    static final int END_RULE = -3;   // END_RULE - n closes the node of nonterminal n on the parse stack
+
+    // Table cells, besides production indexes
+    static final int NONE = -1;
+    static final int RESOLVE = -4;    // Ask the nonterminal's resolver
+
+    // Terminals: every token type, except the ones refined by their text
+    private static final String[] REFINED = {
+            "'{'", "'}'", "'('", "')'", "'['", "']'", "'+'", "'-'", "'*'", "'/'", "Rotatewhen", "Continuewhen"
+    };
+    private static final String[] REFINED_TEXT = {
+            "{", "}", "(", ")", "[", "]", "+", "-", "*", "/", "Rotatewhen", "Continuewhen"
+    };
+    private static final TokenType[] REFINED_TYPES = {
+            TokenType.BRACES, TokenType.BRACES, TokenType.BRACES, TokenType.BRACES, TokenType.BRACES, TokenType.BRACES,
+            TokenType.ARITH_OP, TokenType.ARITH_OP, TokenType.ARITH_OP, TokenType.ARITH_OP, TokenType.LOOP, TokenType.LOOP
+    };
+
+    static final Grammar LANGUAGE = new Grammar();
+
+    private final List<String> terminalNames = new ArrayList<>();
+    private final List<TokenType> terminalTypes = new ArrayList<>();
+    private final int[] terminalOfType = new int[TokenType.values().length];
+    private final int firstRefined;
+
+    private final List<String> nonterminals = new ArrayList<>();
+    private final List<Boolean> named = new ArrayList<>();
+    private final Map<String, Integer> symbols = new HashMap<>();
+
+    private final List<Integer> lhs = new ArrayList<>();
+    private final List<int[]> rhs = new ArrayList<>();
+    private final List<int[]> when = new ArrayList<>();
+    private final List<String> text = new ArrayList<>();
+    private final List<String[]> pending = new ArrayList<>();
+
+    private int[] fallback;
+    private int[] epsilon;
+    private Resolver[] resolvers;
+    private int[] preferred;          // Production a conflict is settled to, or NONE
+    private int[][] table;
+
+    // Read on every step of the parse, so kept as arrays
+    private int[][] bodies;
+    private boolean[] createsNode;
+    private String[] nodeNames;
+    private TokenType[] matchTypes;
+
+    interface Resolver {
+        // Returns the production to use at position, or NONE for a syntax error
+        int choose(TokenCursor tokens, int position);
+    }
+
+    private Grammar() {
+        for (TokenType type : TokenType.values()) {
+            terminalOfType[type.ordinal()] = terminalNames.size();
+            terminalNames.add(type.name());
+            terminalTypes.add(type);
+        }
+        firstRefined = terminalNames.size();
+        for (int i = 0; i < REFINED.length; i++) {
+            terminalNames.add(REFINED[i]);
+            terminalTypes.add(REFINED_TYPES[i]);
+        }
+        for (int i = 0; i < terminalNames.size(); i++) {
+            symbols.put(terminalNames.get(i), i);
+        }
+
+        rule("Program", "START_STATEMENT ClassDeclarationList END_STATEMENT");
+        rule("ClassDeclarationList", "classDeclarations");
+        helper("classDeclarations", "ClassDeclaration classDeclarations", "else");
+        rule("ClassDeclaration", "CLASS IDENTIFIER inheritance '{' ClassImplementation '}'");
+        helper("inheritance", "INHERITANCE IDENTIFIER", "else");
+        rule("ClassImplementation", "classItems");
+        helper("classItems", "else ClassItem classItems", "when '{' '}' '(' ')' '[' ']' CLASS END_STATEMENT");
+        rule("ClassItem",
+                "MethodDeclaration", "Assignment", "VarDeclaration", "FuncCall", "SKIP Assignment",
+                "UsingCommand", "Comment", "Program");
+
+        rule("MethodDeclaration", "FuncDeclaration methodBody");
+        helper("methodBody", "SEMICOLON", "else '{' localDeclarations Statements '}'");
+        helper("localDeclarations",
+                "localDeclaration localDeclarations when INTEGER SINTEGER CHARACTER STRING FLOAT SFLOAT BOOLEAN VOID",
+                "else");
+        helper("localDeclaration", "Assignment", "VarDeclaration");
+        rule("FuncDeclaration", "Type IDENTIFIER '(' ParameterList ')'");
+        rule("ParameterList", "VOID", "else NonEmptyParameterList", "when '{' '}' '(' ')' '[' ']'");
+        rule("NonEmptyParameterList", "Type IDENTIFIER parameters");
+        helper("parameters", "COMMA Type IDENTIFIER parameters", "else");
+        rule("VarDeclaration", "Type IDList SEMICOLON");
+        rule("Type", "INTEGER", "SINTEGER", "CHARACTER", "STRING", "FLOAT", "SFLOAT", "BOOLEAN", "VOID");
+        rule("IDList", "IDENTIFIER identifiers");
+        helper("identifiers", "COMMA IDENTIFIER identifiers", "else");
+        rule("UsingCommand", "INCLUSION '(' STRING ')' SEMICOLON");
+        rule("Comment", "COMMENT", "COMMENT commentLines");
+        helper("commentLines", "COMMENT commentLines", "else");
+
+        rule("FuncCall", "IDENTIFIER '(' ArgumentList ')' SEMICOLON");
+        rule("ArgumentList", "else NonEmptyArgumentList", "when '{' '}' '(' ')' '[' ']'");
+        rule("NonEmptyArgumentList", "Expression arguments");
+        helper("arguments", "COMMA Expression arguments", "else");
+        rule("Assignment", "AssignmentTarget ASSIGN_OP Expression SEMICOLON");
+        named("AssignmentTarget", "VarDeclaration", "optionalType IDList");
+        helper("optionalType", "Type", "else");
+
+        rule("Expression", "Term terms");
+        helper("terms", "'+' Term terms", "'-' Term terms", "else");
+        rule("Term", "Factor factors");
+        helper("factors", "'*' Factor factors", "'/' Factor factors", "else");
+        rule("Factor", "IDENTIFIER", "CONSTANT", "'(' Expression ')'", "when '{' '}' ')' '[' ']'");
+
+        rule("Statements", "statements");
+        helper("statements", "else Statement statements", "when '}' CLASS END_STATEMENT");
+        rule("Statement",
+                "Assignment", "VarDeclaration", "FuncCall", "WhetherDoStatement", "RotateWhenStatement",
+                "ContinueWhenStatement", "ReplyWithStatement", "TerminateThisStatement", "ReadStatement",
+                "WriteStatement");
+        rule("WhetherDoStatement", "CONDITION '(' ConditionExpression ')' BlockStatements");
+        rule("ConditionExpression", "Condition conditions");
+        helper("conditions", "LOGIC_OP Condition conditions", "else");
+        rule("Condition", "Expression REL_OP Expression");
+        rule("RotateWhenStatement", "Rotatewhen '(' ConditionExpression ')' BlockStatements");
+        rule("ContinueWhenStatement",
+                "Continuewhen '(' Expression SEMICOLON Expression SEMICOLON Expression ')' BlockStatements");
+        rule("ReplyWithStatement", "RETURN replyValue SEMICOLON");
+        helper("replyValue", "IDENTIFIER", "else Expression");
+        rule("TerminateThisStatement", "BREAK SEMICOLON");
+        rule("BlockStatements", "'{' Statements '}'");
+        rule("ReadStatement", "READ '(' IDENTIFIER ')' SEMICOLON");
+        rule("WriteStatement", "WRITE '(' Expression ')' SEMICOLON");
+
+        resolvers = new Resolver[nonterminals.size()];
+        preferred = new int[nonterminals.size()];
+        Arrays.fill(preferred, NONE);
+        for (String[] production : pending) {
+            addProduction(production[0], production[1]);
+        }
+        pending.clear();
+
+        int classMethod = production("ClassItem", "MethodDeclaration");
+        int classAssignment = production("ClassItem", "Assignment");
+        int classVariable = production("ClassItem", "VarDeclaration");
+        int classCall = production("ClassItem", "FuncCall");
+        int classTypedAssignment = production("ClassItem", "SKIP Assignment");
+        resolve("ClassItem", (tokens, position) -> {
+            if (tokens.getType(position) != TokenType.IDENTIFIER) {
+                return Prediction.isLikelyMethodDeclaration(tokens, position) ? classMethod
+                        : Prediction.isAssignment(tokens, position) ? classAssignment : classVariable;
+            }
+            if (Prediction.looksLikeFuncCall(tokens, position)) return classCall;
+            if (Prediction.isAssignment(tokens, position)) {
+                // w w = 5; the user-defined type name is not part of the IDList
+                return Prediction.peekIs(tokens, position + 1, TokenType.IDENTIFIER) ? classTypedAssignment : classAssignment;
+            }
+            if (Prediction.isLikelyMethodDeclaration(tokens, position)) return classMethod;
+            if (Prediction.isVarDecl(tokens, position)) return classVariable;
+            return NONE;
+        });
+
+        int statementAssignment = production("Statement", "Assignment");
+        int statementVariable = production("Statement", "VarDeclaration");
+        int statementCall = production("Statement", "FuncCall");
+        resolve("Statement", (tokens, position) -> {
+            if (tokens.getType(position) == TokenType.IDENTIFIER) {
+                return Prediction.looksLikeFuncCall(tokens, position) ? statementCall : statementAssignment;
+            }
+            return Prediction.isAssignment(tokens, position) ? statementAssignment : statementVariable;
+        });
+
+        int localAssignment = production("localDeclaration", "Assignment");
+        int localVariable = production("localDeclaration", "VarDeclaration");
+        resolve("localDeclaration", (tokens, position) ->
+                Prediction.isAssignment(tokens, position) ? localAssignment : localVariable);
+
+        prefer("localDeclarations", "localDeclaration localDeclarations");
+        prefer("ParameterList", "VOID");
+        prefer("ArgumentList", "");
+        prefer("replyValue", "IDENTIFIER");
+
+        // A multi-line comment is one token per line, up to the one ending with ##/
+        int lineComment = production("Comment", "COMMENT");
+        int blockComment = production("Comment", "COMMENT commentLines");
+        resolve("Comment", (tokens, position) -> {
+            String value = tokens.getValue(position);
+            return value.startsWith("/##") && !value.endsWith("##/") ? blockComment : lineComment;
+        });
+        int moreLines = production("commentLines", "COMMENT commentLines");
+        int lastLine = production("commentLines", "");
+        resolve("commentLines", (tokens, position) ->
+                tokens.getValue(position - 1).endsWith("##/") ? lastLine : moreLines);
+
+        buildTable();
+        bodies = rhs.toArray(new int[0][]);
+        nodeNames = nonterminals.toArray(new String[0]);
+        matchTypes = terminalTypes.toArray(new TokenType[0]);
+        createsNode = new boolean[named.size()];
+        for (int i = 0; i < createsNode.length; i++) {
+            createsNode[i] = named.get(i);
+        }
+    }
+
+    // Declares a rule whose tree node carries its name
+    private void rule(String name, String... alternatives) {
+        declare(name, name, true, alternatives);
+    }
+
+    // Declares a rule whose tree node is named after another rule
+    private void named(String name, String nodeName, String... alternatives) {
+        declare(name, nodeName, true, alternatives);
+    }
+
+    private void helper(String name, String... alternatives) {
+        declare(name, name, false, alternatives);
+    }
+
+    private void declare(String name, String nodeName, boolean createsNode, String[] alternatives) {
+        symbols.put(name, terminalNames.size() + nonterminals.size());
+        nonterminals.add(nodeName);
+        named.add(createsNode);
+        for (String alternative : alternatives) {
+            pending.add(new String[]{name, alternative});
+        }
+    }
+
+    private void addProduction(String name, String alternative) {
+        List<String> parts = new ArrayList<>(Arrays.asList(alternative.trim().split("\\s+")));
+        parts.remove("");
+        boolean isFallback = !parts.isEmpty() && parts.get(0).equals("else");
+        if (isFallback) parts.remove(0);
+
+        int[] lookahead = null;
+        int whenAt = parts.indexOf("when");
+        if (whenAt >= 0) {
+            lookahead = symbolsOf(parts.subList(whenAt + 1, parts.size()));
+            parts = parts.subList(0, whenAt);
+        }
+
+        int nonterminal = symbol(name) - terminalNames.size();
+        lhs.add(nonterminal);
+        rhs.add(symbolsOf(parts));
+        when.add(lookahead);
+        text.add(String.join(" ", parts));
+        if (isFallback) {
+            if (fallback == null) {
+                fallback = new int[nonterminals.size()];
+                Arrays.fill(fallback, NONE);
+            }
+            fallback[nonterminal] = rhs.size() - 1;
+        }
+    }
+
+    private int[] symbolsOf(List<String> names) {
+        int[] ids = new int[names.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = names.get(i).equals("SKIP") ? SKIP : symbol(names.get(i));
+        }
+        return ids;
+    }
+
+    private int symbol(String name) {
+        Integer id = symbols.get(name);
+        if (id == null) {
+            throw new IllegalStateException("Unknown grammar symbol " + name);
+        }
+        return id;
+    }
+
+    private int production(String name, String body) {
+        int nonterminal = symbol(name) - terminalNames.size();
+        for (int i = 0; i < lhs.size(); i++) {
+            if (lhs.get(i) == nonterminal && text.get(i).equals(body)) return i;
+        }
+        throw new IllegalStateException("No production " + name + " -> " + body);
+    }
+
+    private void resolve(String name, Resolver resolver) {
+        resolvers[symbol(name) - terminalNames.size()] = resolver;
+    }
+
+    private void prefer(String name, String body) {
+        preferred[symbol(name) - terminalNames.size()] = production(name, body);
+    }
+
+    // Fills the predictive table from FIRST and FOLLOW. A cell claimed by two
+    // productions needs a resolver or a preference for one of them; without
+    // either the grammar is rejected.
+    private void buildTable() {
+        int terminals = terminalNames.size();
+        int count = nonterminals.size();
+        if (fallback == null) {
+            fallback = new int[count];
+            Arrays.fill(fallback, NONE);
+        }
+        epsilon = new int[count];
+        Arrays.fill(epsilon, NONE);
+        int[] alternatives = new int[count];
+        for (int p = 0; p < lhs.size(); p++) {
+            alternatives[lhs.get(p)]++;
+        }
+        for (int p = 0; p < lhs.size(); p++) {
+            if (alternatives[lhs.get(p)] == 1) fallback[lhs.get(p)] = p;
+        }
+
+        boolean[] nullable = new boolean[count];
+        BitSet[] first = new BitSet[count];
+        BitSet[] follow = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            first[i] = new BitSet();
+            follow[i] = new BitSet();
+        }
+        follow[symbol("Program") - terminals].set(terminals);  // EOF
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < lhs.size(); p++) {
+                int a = lhs.get(p);
+                int[] body = rhs.get(p);
+                if (body.length > 0 && body[0] == SKIP) continue;
+                BitSet before = (BitSet) first[a].clone();
+                first[a].or(firstOf(body, 0, first, nullable));
+                if (!nullable[a] && nullableFrom(body, 0, nullable)) {
+                    nullable[a] = true;
+                    changed = true;
+                }
+                changed |= !before.equals(first[a]);
+
+                for (int i = 0; i < body.length; i++) {
+                    if (body[i] < terminals) continue;
+                    int b = body[i] - terminals;
+                    BitSet beforeFollow = (BitSet) follow[b].clone();
+                    follow[b].or(firstOf(body, i + 1, first, nullable));
+                    if (nullableFrom(body, i + 1, nullable)) {
+                        follow[b].or(follow[a]);
+                    }
+                    changed |= !beforeFollow.equals(follow[b]);
+                }
+            }
+        }
+
+        table = new int[count][terminals + 1];
+        for (int[] row : table) {
+            Arrays.fill(row, NONE);
+        }
+        for (int p = 0; p < lhs.size(); p++) {
+            int a = lhs.get(p);
+            int[] body = rhs.get(p);
+            if (body.length > 0 && body[0] == SKIP) continue;  // Only chosen by a resolver
+            if (body.length == 0) epsilon[a] = p;
+
+            BitSet lookahead = new BitSet();
+            if (when.get(p) != null) {
+                for (int t : when.get(p)) lookahead.set(t);
+            } else {
+                lookahead.or(firstOf(body, 0, first, nullable));
+                if (nullableFrom(body, 0, nullable)) lookahead.or(follow[a]);
+            }
+            for (int t = lookahead.nextSetBit(0); t >= 0; t = lookahead.nextSetBit(t + 1)) {
+                if (table[a][t] == NONE || table[a][t] == p) {
+                    table[a][t] = p;
+                } else if (resolvers[a] != null) {
+                    table[a][t] = RESOLVE;
+                } else if (preferred[a] == p || preferred[a] == table[a][t]) {
+                    table[a][t] = preferred[a];
+                } else {
+                    String on = t == terminals ? "end of input" : terminalNames.get(t);
+                    throw new IllegalStateException("LL(1) conflict in " + nonterminals.get(a) + " on " + on
+                            + " between '" + text.get(table[a][t]) + "' and '" + text.get(p) + "'");
+                }
+            }
+        }
+    }
+
+    private BitSet firstOf(int[] body, int from, BitSet[] first, boolean[] nullable) {
+        BitSet result = new BitSet();
+        int terminals = terminalNames.size();
+        for (int i = from; i < body.length; i++) {
+            if (body[i] < terminals) {
+                result.set(body[i]);
+                return result;
+            }
+            result.or(first[body[i] - terminals]);
+            if (!nullable[body[i] - terminals]) return result;
+        }
+        return result;
+    }
+
+    private boolean nullableFrom(int[] body, int from, boolean[] nullable) {
+        for (int i = from; i < body.length; i++) {
+            if (body[i] < terminalNames.size() || !nullable[body[i] - terminalNames.size()]) return false;
+        }
+        return true;
+    }
+
+    int terminalCount() {
+        return terminalNames.size();
+    }
+
+    int startSymbol() {
+        return symbol("Program");
+    }
+
+    // The terminal a token stands for, refining braces, operators and loops by their text
+    int terminalAt(TokenCursor tokens, int position) {
+        TokenType type = tokens.getType(position);
+        switch (type) {
+            case BRACES:
+                for (int i = 0; i < 6; i++) {
+                    if (tokens.valueEquals(position, REFINED_TEXT[i])) return firstRefined + i;
+                }
+                break;
+            case ARITH_OP:
+                for (int i = 6; i < 10; i++) {
+                    if (tokens.valueEquals(position, REFINED_TEXT[i])) return firstRefined + i;
+                }
+                break;
+            case LOOP:
+                return firstRefined + (tokens.valueEquals(position, REFINED_TEXT[10]) ? 10 : 11);
+            default:
+                break;
+        }
+        return terminalOfType[type.ordinal()];
+    }
+
+    TokenType tokenType(int terminal) {
+        return matchTypes[terminal];
+    }
+
+    // Production for nonterminal (0-based) at the current token, or NONE
+    int predict(int nonterminal, TokenCursor tokens, int position) {
+        boolean atEnd = !tokens.hasToken(position);
+        int production = table[nonterminal][atEnd ? terminalNames.size() : terminalAt(tokens, position)];
+        if (production == RESOLVE) {
+            return resolvers[nonterminal].choose(tokens, position);
+        }
+        if (production == NONE) {
+            return atEnd && epsilon[nonterminal] != NONE ? epsilon[nonterminal] : fallback[nonterminal];
+        }
+        return production;
+    }
+
+    int[] body(int production) {
+        return bodies[production];
+    }
+
+    String nodeName(int nonterminal) {
+        return nodeNames[nonterminal];
+    }
+
+    boolean createsNode(int nonterminal) {
+        return createsNode[nonterminal];
+    }
+}
@@ -0,0 +1,148 @@
+package parser;
+
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Builds a green tree from the parse events. Finished children wait on a
+// pending stack with their absolute position until their rule closes and
+// keeps them relative to itself, so nothing is changed after it is made.
+class GreenBuilder implements TreeBuilder {
+    // Open rules
+    private String[] openNames = new String[64];
+    private int[] openStarts = new int[64];
+    private int[] openEnds = new int[64];
+    private int[] openLines = new int[64];
+    private String[] openFiles = new String[64];
+    private int[] openPending = new int[64];  // First pending child of the rule
+    private int depth;
+
+    private GreenNode[] pending = new GreenNode[256];
+    private int[] pendingStarts = new int[256];
+    private int[] pendingLines = new int[256];
+    private String[] pendingFiles = new String[256];
+    private int pendingSize;
+
+    GreenBuilder() {
+        enterRule("ROOT", -1, null);
+        openStarts[0] = 0;
+    }
+
+    @Override
+    public void enterRule(String rule, int lineNumber, String fileName) {
+        if (depth == openNames.length) {
+            int capacity = depth * 2;
+            openNames = Arrays.copyOf(openNames, capacity);
+            openStarts = Arrays.copyOf(openStarts, capacity);
+            openEnds = Arrays.copyOf(openEnds, capacity);
+            openLines = Arrays.copyOf(openLines, capacity);
+            openFiles = Arrays.copyOf(openFiles, capacity);
+            openPending = Arrays.copyOf(openPending, capacity);
+        }
+        openNames[depth] = rule;
+        openLines[depth] = lineNumber;
+        openFiles[depth] = fileName;
+        openPending[depth] = pendingSize;
+        depth++;
+    }
+
+    @Override
+    public void exitRule(String rule) {
+        if (depth > 1) {
+            close();
+        }
+    }
+
+    @Override
+    public void matched(TokenType type, TokenCursor tokens, int index) {
+        addPending(GreenNode.leaf(type.getDescription(), tokens.getValue(index), tokens.getSymbol(index)),
+                index, tokens.getLineNumber(index), tokens.getFileName(index));
+    }
+
+    @Override
+    public void startsAt(int index) {
+        openStarts[depth - 1] = index;
+    }
+
+    @Override
+    public void endsAt(int index) {
+        openEnds[depth - 1] = index;
+    }
+
+    private void close() {
+        depth--;
+        int from = openPending[depth];
+        GreenNode node = GreenNode.rule(openNames[depth], openEnds[depth] - openStarts[depth],
+                openStarts[depth], openLines[depth], openFiles[depth],
+                pending, pendingStarts, pendingLines, pendingFiles, from, pendingSize);
+        Arrays.fill(pending, from, pendingSize, null);
+        pendingSize = from;
+        addPending(node, openStarts[depth], openLines[depth], openFiles[depth]);
+    }
+
+    private void addPending(GreenNode node, int start, int lineNumber, String fileName) {
+        if (pendingSize == pending.length) {
+            int capacity = pendingSize * 2;
+            pending = Arrays.copyOf(pending, capacity);
+            pendingStarts = Arrays.copyOf(pendingStarts, capacity);
+            pendingLines = Arrays.copyOf(pendingLines, capacity);
+            pendingFiles = Arrays.copyOf(pendingFiles, capacity);
+        }
+        pending[pendingSize] = node;
+        pendingStarts[pendingSize] = start;
+        pendingLines[pendingSize] = lineNumber;
+        pendingFiles[pendingSize] = fileName;
+        pendingSize++;
+    }
+
+    // The green node of node, a rule with token ranges, built from them
+    // without a ROOT around it. Only the getters of node are read.
+    GreenNode build(ParseTreeNode node) {
+        replay(node);
+        return pending[0];
+    }
+
+    // Gives the builder the events that parsed node, from its token ranges
+    private void replay(ParseTreeNode node) {
+        ParseTreeNode[] stack = {node};
+        int[] next = new int[1];
+        enterRule(node.getName(), node.getLineNumber(), node.getFileName());
+        startsAt(node.getFirstToken());
+        int top = 0;
+        while (top >= 0) {
+            List<ParseTreeNode> children = stack[top].getChildren();
+            if (next[top] == children.size()) {
+                endsAt(stack[top].getEndToken());
+                exitRule(stack[top].getName());
+                top--;
+                continue;
+            }
+            ParseTreeNode child = children.get(next[top]++);
+            if (!child.isRuleNode()) {
+                addPending(GreenNode.leaf(child.getName(), child.getValue(), child.getSymbol()),
+                        child.getFirstToken(), child.getLineNumber(), child.getFileName());
+                continue;
+            }
+            enterRule(child.getName(), child.getLineNumber(), child.getFileName());
+            startsAt(child.getFirstToken());
+            if (++top == stack.length) {
+                stack = Arrays.copyOf(stack, top * 2);
+                next = Arrays.copyOf(next, top * 2);
+            }
+            stack[top] = child;
+            next[top] = 0;
+        }
+    }
+
+    // Closes the ROOT, which ends where its last child does
+    RedNode finish() {
+        while (depth > 1) {
+            close();
+        }
+        openEnds[0] = pendingSize == 0 ? 0 : pendingStarts[pendingSize - 1] + pending[pendingSize - 1].getWidth();
+        close();
+        return new RedNode(pending[0], null, 0, 0, -1, null);
+    }
+}
@@ -0,0 +1,147 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// Immutable node of the red/green tree: a rule or matched token with its width
+// in tokens and its children, but not where it is. The place of each child is
+// kept relative to the node: its first token as an offset, its line as a
+// distance when it is in the node's file and both have lines, else as is, and
+// its file. A green node never changes once made, so any number of trees and
+// threads can share it; RedNode adds the absolute positions on top.
+public final class GreenNode {
+    private static final int NO_LINE = Integer.MIN_VALUE;  // A line of -1
+    private static final GreenNode[] NO_CHILDREN = {};
+    private static final int[] NO_INTS = {};
+    private static final String[] NO_FILES = {};
+
+    private final String name;
+    private final String value;   // Token text of a leaf, null for a rule
+    private final int symbol;
+    private final int width;      // Tokens covered, including ones skipped by error recovery
+    private final GreenNode[] children;
+    private final int[] starts;
+    private final int[] lines;
+    private final String[] files;
+
+    private GreenNode(String name, String value, int symbol, int width,
+                      GreenNode[] children, int[] starts, int[] lines, String[] files) {
+        this.name = name;
+        this.value = value;
+        this.symbol = symbol;
+        this.width = width;
+        this.children = children;
+        this.starts = starts;
+        this.lines = lines;
+        this.files = files;
+    }
+
+    static GreenNode leaf(String name, String value, int symbol) {
+        return new GreenNode(name, value, symbol, 1, NO_CHILDREN, NO_INTS, NO_INTS, NO_FILES);
+    }
+
+    // A rule at start, lineNumber and fileName with children [from, to) of
+    // the given arrays, whose positions are absolute
+    static GreenNode rule(String name, int width, int start, int lineNumber, String fileName,
+                          GreenNode[] children, int[] starts, int[] lines, String[] files, int from, int to) {
+        int count = to - from;
+        if (count == 0) {
+            return new GreenNode(name, null, -1, width, NO_CHILDREN, NO_INTS, NO_INTS, NO_FILES);
+        }
+        int[] childStarts = new int[count];
+        int[] childLines = new int[count];
+        for (int i = 0; i < count; i++) {
+            childStarts[i] = starts[from + i] - start;
+            childLines[i] = relativeLine(lines[from + i], files[from + i], lineNumber, fileName);
+        }
+        return new GreenNode(name, null, -1, width, Arrays.copyOfRange(children, from, to),
+                childStarts, childLines, Arrays.copyOfRange(files, from, to));
+    }
+
+    // The green tree of a ParseTreeNode parsed with token ranges, e.g. the
+    // new version of a subtree to replace in a RedNode. The ParseTreeNode is
+    // only read, and later changes to it do not reach the green tree.
+    public static GreenNode from(ParseTreeNode node) {
+        if (node.getFirstToken() < 0 || (node.isRuleNode() && node.getEndToken() < node.getFirstToken())) {
+            throw new IllegalArgumentException("Node " + node.getName() + " has no token range");
+        }
+        if (!node.isRuleNode()) {
+            return leaf(node.getName(), node.getValue(), node.getSymbol());
+        }
+        return new GreenBuilder().build(node);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public int getSymbol() {
+        return symbol;
+    }
+
+    public boolean isRuleNode() {
+        return value == null;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getChildCount() {
+        return children.length;
+    }
+
+    public GreenNode getChild(int i) {
+        return children[i];
+    }
+
+    // Token offset of child i from this node's first token
+    public int getChildOffset(int i) {
+        return starts[i];
+    }
+
+    // Line of child i when this node is at lineNumber in fileName
+    int getChildLine(int i, int lineNumber, String fileName) {
+        if (lines[i] == NO_LINE) {
+            return -1;
+        }
+        return isRelative(files[i], lineNumber, fileName) ? lineNumber + lines[i] : lines[i];
+    }
+
+    String getChildFile(int i) {
+        return files[i];
+    }
+
+    // This node, at lineNumber in fileName, with child i replaced. Children
+    // after it move by widthShift tokens and, where they have lines in
+    // editedFile, by lineShift lines.
+    GreenNode withChild(int i, GreenNode child, int widthShift, int lineShift, String editedFile, int lineNumber, String fileName) {
+        GreenNode[] newChildren = children.clone();
+        int[] newStarts = starts.clone();
+        int[] newLines = lines.clone();
+        newChildren[i] = child;
+        for (int j = i + 1; j < children.length; j++) {
+            newStarts[j] += widthShift;
+            int line = getChildLine(j, lineNumber, fileName);
+            if (line > 0 && Objects.equals(files[j], editedFile)) {
+                newLines[j] = relativeLine(line + lineShift, files[j], lineNumber, fileName);
+            }
+        }
+        return new GreenNode(name, null, -1, width + widthShift, newChildren, newStarts, newLines, files);
+    }
+
+    private static int relativeLine(int line, String file, int lineNumber, String fileName) {
+        if (line == -1) {
+            return NO_LINE;
+        }
+        return isRelative(file, lineNumber, fileName) ? line - lineNumber : line;
+    }
+
+    private static boolean isRelative(String file, int lineNumber, String fileName) {
+        return lineNumber > 0 && Objects.equals(file, fileName);
+    }
+}
@@ -0,0 +1,41 @@
+package parser;
+
+import java.util.List;
+
+// Node read from a TreeFile whose children stay in the file until they are
+// first asked for
+class MappedTreeNode extends ParseTreeNode {
+    private final TreeFile file;
+    private final long offset;
+    private final long childrenAt;
+    private boolean loaded;
+
+    MappedTreeNode(TreeFile file, long offset, long childrenAt, String name, String value, int symbol, int lineNumber, String fileName) {
+        super(name, value, symbol, lineNumber, fileName);
+        this.file = file;
+        this.offset = offset;
+        this.childrenAt = childrenAt;
+    }
+
+    @Override
+    public List<ParseTreeNode> getChildren() {
+        load();
+        return super.getChildren();
+    }
+
+    @Override
+    public void addChild(ParseTreeNode child) {
+        load();
+        super.addChild(child);
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        for (long child : file.children(offset, childrenAt)) {
+            super.addChild(file.node(child));
+        }
+    }
+}
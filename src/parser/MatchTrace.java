@@ -0,0 +1,23 @@
+package parser;
+
+import error.CompilerError;
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Records a "Matched Rule used" entry for every matched token, the trace the
+// GUI shows next to the errors
+public class MatchTrace implements ParseListener {
+    private final List<CompilerError> matches = new ArrayList<>();
+
+    @Override
+    public void matched(TokenType type, TokenCursor tokens, int index) {
+        matches.add(new CompilerError(tokens.getLineNumber(index), "Matched Rule used: " + type, tokens.getFileName(index)));
+    }
+
+    public List<CompilerError> getMatches() {
+        return matches;
+    }
+}
@@ -0,0 +1,23 @@
+package parser;
+
+import error.CompilerError;
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+// Receives the parse as it happens. Every method does nothing by default, so
+// a listener only implements the events it needs. A matched token is passed
+// as its index in tokens, which is only valid during the call; reading its
+// value is left to listeners that want it.
+public interface ParseListener {
+    default void enterRule(String rule, int lineNumber, String fileName) {
+    }
+
+    default void exitRule(String rule) {
+    }
+
+    default void matched(TokenType type, TokenCursor tokens, int index) {
+    }
+
+    default void error(CompilerError error) {
+    }
+}
@@ -1,21 +1,60 @@
 package parser;
 
 import lexer.Token;
+import lexer.TokenCursor;
+import lexer.TokenType;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Stack;
 
-public class ParseTree {
+// Built from the parse events: rules become inner nodes, matched tokens leaves.
+// Rule nodes are also indexed by name and by file and line as they are added,
+// so the queries below cost about as much as the nodes they return.
+public class ParseTree implements TreeBuilder {
+    private static final int SEGMENT_TOKENS = 1024;  // A new tree starts a segment after at most this many tokens
+
     private ParseTreeNode root;
     private ParseTreeNode currentNode;
-    private List<ParseTreeNode> nodes;
     private Stack<ParseTreeNode> nodeStack;  // For tracking parent nodes
+    private Map<String, List<ParseTreeNode>> rulesByName;  // In document order
+    private List<ParseTreeNode> matchedRules;              // Rules with a line, in document order
+    private Map<String, FileLines> rulesByFile;            // The same, per file
+    private FileLines lastFile;
+    private List<ParseTreeNode.Segment> segments = new ArrayList<>();  // By start
+    private boolean reparsed;  // The nodes were moved to a new tree
+
+    // While reparsing: the tree before the edit, whose index lists become
+    // this tree's in place, and the subtrees taken over from it since the
+    // last new rule. They follow each other in both trees, so their index
+    // entries are kept as one block.
+    private ParseTree previous;
+    private int editStart;
+    private int editEnd;
+    private int editShift;
+    private String editFile;
+    private int editLines;
+    private List<ParseTreeNode> made;  // The new nodes, put in segments once the edit is done
+    private Map<String, Splice> splices;
+    private Splice matchedSplice;
+    private ParseTreeNode foundParent;  // Parent of the node previousRule found last,
+    private int foundIndex;             // and its index there
+    private ParseTreeNode runFirst;
+    private ParseTreeNode runLast;
+    private ParseTreeNode runParent;  // Their parent in previous
+    private int runIndex;             // Of runLast among its children
 
     public ParseTree() {
         this.root = new ParseTreeNode("ROOT", -1);  // -1 for root line number
         this.currentNode = root;
-        this.nodes = new ArrayList<>();
         this.nodeStack = new Stack<>();
+        this.rulesByName = new HashMap<>();
+        this.matchedRules = new ArrayList<>();
+        this.rulesByFile = new HashMap<>();
     }
 
     public void startRule(String ruleName, int lineNumber) {
@@ -23,28 +62,448 @@ public class ParseTree {
     }
 
     public void startRule(String ruleName, int lineNumber, String fileName) {
+        flushRun();
         ParseTreeNode newNode = new ParseTreeNode(ruleName, null, lineNumber, fileName);
+        if (previous != null) {
+            made.add(newNode);
+        }
         currentNode.addChild(newNode);
         nodeStack.push(currentNode);  // Save current parent
         currentNode = newNode;        // Set new node as current
-        nodes.add(newNode);
+        index(newNode);
     }
 
     public void endRule() {
         if (!nodeStack.isEmpty()) {
+            flushRun();
+            // Builders that give no end, like ArenaTree, end a rule after its last child
+            if (currentNode.endToken < 0 && currentNode.firstToken >= 0) {
+                List<ParseTreeNode> children = currentNode.getChildren();
+                currentNode.endToken = children.isEmpty() ?
+                        currentNode.firstToken :
+                        Math.max(currentNode.firstToken, children.get(children.size() - 1).getEndToken());
+            }
             currentNode = nodeStack.pop();  // Restore parent node
+            if (nodeStack.isEmpty() && previous == null) {
+                sortLines();
+            }
+        }
+    }
+
+    @Override
+    public void enterRule(String rule, int lineNumber, String fileName) {
+        startRule(rule, lineNumber, fileName);
+    }
+
+    @Override
+    public void exitRule(String rule) {
+        endRule();
+    }
+
+    @Override
+    public void matched(TokenType type, TokenCursor tokens, int index) {
+        ParseTreeNode leaf = addLeaf(type, tokens.getValue(index), tokens.getSymbol(index), tokens.getLineNumber(index), tokens.getFileName(index));
+        leaf.firstToken = index;
+        leaf.endToken = index + 1;
+        place(leaf, index);
+    }
+
+    @Override
+    public void startsAt(int index) {
+        currentNode.firstToken = index;
+        place(currentNode, index);
+    }
+
+    @Override
+    public void endsAt(int index) {
+        currentNode.endToken = index;
+    }
+
+    void setReusable(boolean reusable) {
+        currentNode.reusable = reusable;
+    }
+
+    // A node of a new tree starting at token index goes into the last
+    // segment, or a new one once that has SEGMENT_TOKENS tokens. Nodes start
+    // in document order, and the segments of a new tree do not move yet.
+    private void place(ParseTreeNode node, int index) {
+        if (previous != null || index < 0) {
+            return;
+        }
+        int last = segments.size() - 1;
+        if (last < 0 || index >= segments.get(last).start + SEGMENT_TOKENS) {
+            ParseTreeNode.Segment segment = new ParseTreeNode.Segment();
+            segment.start = index;
+            segments.add(segment);
+            last++;
+        }
+        node.segment = segments.get(last);
+    }
+
+    // Starts a reparse of previous, where old tokens editStart to editEnd
+    // were replaced, so that the old token indexes from editEnd on are to move
+    // by shift and the lines of fileName after them by lines. Previous is
+    // read by its old indexes until finishReparse.
+    void startReparse(ParseTree previous, int editStart, int editEnd, int shift, String fileName, int lines) {
+        if (previous.reparsed) {
+            throw new IllegalStateException("The tree was reparsed before");
+        }
+        previous.reparsed = true;
+        this.previous = previous;
+        this.editStart = editStart;
+        this.editEnd = editEnd;
+        editShift = shift;
+        editFile = fileName;
+        editLines = lines;
+        made = new ArrayList<>();
+        segments = previous.segments;
+        if (segments.isEmpty()) {
+            segments.add(new ParseTreeNode.Segment());
+        }
+        if (!Objects.equals(segments.get(0).file, fileName)) {
+            moveLinesTo(previous.root, fileName);
+        }
+        split(previous.root, editEnd);
+        if (segments.get(0).start >= editEnd) {  // The edit comes before every node, which all move
+            ParseTreeNode.Segment first = new ParseTreeNode.Segment();
+            first.file = fileName;
+            segments.add(0, first);
+        }
+        rulesByName = previous.rulesByName;
+        matchedRules = previous.matchedRules;
+        rulesByFile = previous.rulesByFile;
+        splices = new HashMap<>();
+        for (Map.Entry<String, List<ParseTreeNode>> entry : rulesByName.entrySet()) {
+            splices.put(entry.getKey(), new Splice(entry.getValue()));
+        }
+        matchedSplice = new Splice(matchedRules);
+        for (FileLines fileLines : rulesByFile.values()) {
+            fileLines.startReparse();
+        }
+    }
+
+    // The lines the segments move are those of the file edited. A new tree
+    // has moved none yet; otherwise, when another file is edited, the nodes
+    // are written out of their segments and put back.
+    private void moveLinesTo(ParseTreeNode root, String fileName) {
+        boolean moved = false;
+        for (ParseTreeNode.Segment segment : segments) {
+            moved |= segment.lines != 0;
+        }
+        List<ParseTreeNode> nodes = moved ? previous.getNodes() : Collections.emptyList();
+        for (ParseTreeNode node : nodes) {
+            node.moveWith(null);
+        }
+        for (ParseTreeNode.Segment segment : segments) {
+            segment.lines = 0;
+            segment.file = fileName;
+        }
+        for (ParseTreeNode node : nodes) {
+            if (node.getFirstToken() >= 0 && node.getEndToken() >= 0) {
+                node.moveWith(segments.get(segmentAt(node.getFirstToken())));
+            }
+        }
+    }
+
+    // Splits the segment that token index at falls into there, so that the
+    // nodes from at on can move without those before it. The nodes of the
+    // part with fewer tokens go to a new segment.
+    private void split(ParseTreeNode root, int at) {
+        int index = segmentAt(at);
+        ParseTreeNode.Segment segment = segments.get(index);
+        if (segment.start >= at) {
+            return;
+        }
+        int end = index + 1 < segments.size() ? segments.get(index + 1).start : endOf(root);
+        ParseTreeNode.Segment part = new ParseTreeNode.Segment();
+        part.tokens = segment.tokens;
+        part.lines = segment.lines;
+        part.file = segment.file;
+        if (at - segment.start <= end - at) {
+            part.start = segment.start;
+            segment.start = at;
+            segments.add(index, part);
+            moveNodes(root, part.start, at, segment, part);
+        } else {
+            part.start = at;
+            segments.add(index + 1, part);
+            moveNodes(root, at, end, segment, part);
+        }
+    }
+
+    // Index of the segment token index falls into; the first one takes
+    // the tokens before it
+    private int segmentAt(int index) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {  // Last segment starting at or before index
+            int middle = (low + high + 1) >>> 1;
+            if (segments.get(middle).start <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private static int endOf(ParseTreeNode root) {
+        List<ParseTreeNode> children = root.getChildren();
+        return children.isEmpty() ? 0 : children.get(children.size() - 1).getEndToken();
+    }
+
+    // Moves the nodes of segment from starting at token indexes low to high
+    // to segment to, which has the same shift
+    private static void moveNodes(ParseTreeNode root, int low, int high, ParseTreeNode.Segment from,
+            ParseTreeNode.Segment to) {
+        ParseTreeNode[] stack = new ParseTreeNode[64];
+        stack[0] = root;
+        int size = 1;
+        while (size > 0) {
+            ParseTreeNode node = stack[--size];
+            if (node.segment == from && node.getFirstToken() >= low && node.getFirstToken() < high) {
+                node.segment = to;
+            }
+            // The children that reach into the range; an empty one at low
+            // ends there too
+            List<ParseTreeNode> children = node.getChildren();
+            int first = 0;
+            int last = children.size();
+            while (first < last) {
+                int middle = (first + last) >>> 1;
+                if (children.get(middle).getEndToken() < low) {
+                    first = middle + 1;
+                } else {
+                    last = middle;
+                }
+            }
+            for (int i = first; i < children.size() && children.get(i).getFirstToken() < high; i++) {
+                if (size == stack.length) {
+                    stack = Arrays.copyOf(stack, size * 2);
+                }
+                stack[size++] = children.get(i);
+            }
+        }
+    }
+
+    // The node of the previous tree for rule that starts at old token index,
+    // found by descending through the children that contain it
+    ParseTreeNode previousRule(String rule, int index) {
+        // Mostly the sibling after the node found last, as reparse takes
+        // one subtree after another
+        if (foundParent != null && foundIndex + 1 < foundParent.getChildren().size()) {
+            ParseTreeNode next = foundParent.getChildren().get(foundIndex + 1);
+            if (next.getFirstToken() == index && next.getName().equals(rule)) {
+                foundIndex++;
+                return next;
+            }
+        }
+        ParseTreeNode node = previous.root;
+        while (true) {
+            List<ParseTreeNode> children = node.getChildren();
+            int low = 0;
+            int high = children.size() - 1;
+            while (low <= high) {  // Last child starting at or before index
+                int middle = (low + high) >>> 1;
+                if (children.get(middle).getFirstToken() <= index) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            if (high < 0 || children.get(high).getEndToken() <= index) {
+                return null;
+            }
+            ParseTreeNode parent = node;
+            node = children.get(high);
+            if (node.getFirstToken() == index && node.getName().equals(rule)) {
+                foundParent = parent;
+                foundIndex = high;
+                return node;
+            }
+        }
+    }
+
+    // Moves node, a subtree of the previous tree, under the current rule
+    void reuse(ParseTreeNode node) {
+        ParseTreeNode oldParent = node.getParent();
+        List<ParseTreeNode> siblings = oldParent.getChildren();
+        if (runLast != null && oldParent == runParent && runIndex + 1 < siblings.size()
+                && siblings.get(runIndex + 1) == node) {
+            runLast = node;
+            runIndex++;
+        } else {
+            flushRun();
+            int index = oldParent == foundParent && siblings.get(foundIndex) == node ?
+                    foundIndex : firstFrom(siblings, 0, node.getFirstToken());
+            while (siblings.get(index) != node) {
+                index++;
+            }
+            runFirst = node;
+            runLast = node;
+            runParent = oldParent;
+            runIndex = index;
+        }
+        currentNode.addChild(node);
+    }
+
+    // The edit is done: the moved nodes take their new positions, and lines
+    // are sorted again where the edit left them out of order
+    void finishReparse() {
+        flushRun();
+        for (Splice splice : splices.values()) {
+            splice.finish();
+        }
+        matchedSplice.finish();
+        for (FileLines fileLines : rulesByFile.values()) {
+            fileLines.finishReparse();
+        }
+        splices = null;
+        matchedSplice = null;
+        foundParent = null;
+        // The segments of the replaced tokens only held nodes that were parsed
+        // again, and those after them move with the edit. The first segment
+        // stays, so that every token has one.
+        int from = Math.max(1, firstSegmentFrom(editStart));
+        int after = firstSegmentFrom(editEnd);
+        segments.subList(from, Math.max(from, after)).clear();
+        for (int i = from; i < segments.size(); i++) {
+            ParseTreeNode.Segment segment = segments.get(i);
+            segment.start += editShift;
+            segment.tokens += editShift;
+            segment.lines += editLines;
+        }
+        // The new nodes go into the segments they start in, in document order
+        int index = 0;
+        for (ParseTreeNode node : made) {
+            int first = node.getFirstToken();
+            if (first < 0 || node.getEndToken() < 0) {
+                continue;
+            }
+            while (index + 1 < segments.size() && segments.get(index + 1).start <= first) {
+                index++;
+            }
+            segments.get(0).start = Math.min(segments.get(0).start, first);
+            node.moveWith(segments.get(index));
         }
+        made = null;
+        previous = null;
+        sortLines();
+    }
+
+    // Keeps the index entries of the subtrees runFirst to runLast. They are
+    // the entries in their old token range, less those at its ends that
+    // belong to the nodes around.
+    private void flushRun() {
+        if (runFirst == null) {
+            return;
+        }
+        int first = runFirst.getFirstToken();
+        int end = runLast.getEndToken();
+        for (Splice splice : splices.values()) {
+            keepRun(splice, first, end);
+        }
+        keepRun(matchedSplice, first, end);
+        for (FileLines fileLines : rulesByFile.values()) {
+            Splice splice = fileLines.splice;
+            int from = runStart(splice.rules, splice.done, first);
+            int to = runEnd(splice.rules, from, end);
+            if (from < to) {
+                fileLines.keep(from, to, lineAfter(splice.rules.get(from)), lineAfter(splice.rules.get(to - 1)));
+            }
+        }
+        runFirst = null;
+        runLast = null;
+        runParent = null;
+    }
+
+    // The line of a node of the previous tree once the edit is done
+    private int lineAfter(ParseTreeNode node) {
+        int line = node.getLineNumber();
+        return node.getFirstToken() >= editEnd && line > 0 && Objects.equals(node.getFileName(), editFile) ?
+                line + editLines : line;
+    }
+
+    private void keepRun(Splice splice, int first, int end) {
+        int from = runStart(splice.rules, splice.done, first);
+        int to = runEnd(splice.rules, from, end);
+        if (from < to) {
+            splice.keep(from, to);
+        }
+    }
+
+    // Index of the first entry of the run among the previous tree's rules
+    // from index from on
+    private int runStart(List<ParseTreeNode> rules, int from, int first) {
+        int low = firstFrom(rules, from, first);
+        while (low < rules.size() && rules.get(low).getFirstToken() == first
+                && rules.get(low) != runFirst && !isBelow(rules.get(low), runFirst)) {
+            low++;  // runFirst's old parent, or an empty rule before it
+        }
+        return low;
+    }
+
+    // Index after the last entry of the run, which starts at low
+    private int runEnd(List<ParseTreeNode> rules, int low, int end) {
+        int high = firstFrom(rules, low, end);
+        while (high < rules.size() && rules.get(high).getFirstToken() == end && isBelow(rules.get(high), runLast)) {
+            high++;  // An empty rule at the end of runLast
+        }
+        return high;
+    }
+
+    // Adds the top-level nodes of other under the current rule, e.g. a
+    // Division that was parsed on its own
+    void addSubtrees(ParseTree other) {
+        for (ParseTreeNode child : other.root.getChildren()) {
+            currentNode.addChild(child);
+        }
+        for (Map.Entry<String, List<ParseTreeNode>> entry : other.rulesByName.entrySet()) {
+            rules(entry.getKey()).addAll(entry.getValue());
+        }
+        matchedRules.addAll(other.matchedRules);
+        for (FileLines lines : other.rulesByFile.values()) {
+            if (!lines.rules.isEmpty()) {
+                fileLines(lines.fileName).addAll(lines.rules, lines.sorted);
+            }
+        }
+        // Other was parsed at its place in the tokens, after the nodes so far
+        segments.addAll(other.segments);
     }
 
     public void addNode(Token token) {
+        addNode(token.getType(), token.getValue(), token.getSymbol(), token.getLineNumber(), token.getFileName());
+    }
+
+    public void addNode(TokenType type, String value, int symbol, int lineNumber, String fileName) {
+        addLeaf(type, value, symbol, lineNumber, fileName);
+    }
+
+    private ParseTreeNode addLeaf(TokenType type, String value, int symbol, int lineNumber, String fileName) {
+        return addLeaf(type.getDescription(), value, symbol, lineNumber, fileName);
+    }
+
+    private ParseTreeNode addLeaf(String name, String value, int symbol, int lineNumber, String fileName) {
         ParseTreeNode newNode = new ParseTreeNode(
-                token.getType().getDescription(),
-                token.getValue(),
-                token.getLineNumber(),
-                token.getFileName()
+                name,
+                value,
+                symbol,
+                lineNumber,
+                fileName
         );
+        if (previous != null) {
+            made.add(newNode);
+        }
         currentNode.addChild(newNode);
-        nodes.add(newNode);
+        return newNode;
+    }
+
+    // A leaf known by its name, e.g. from a RedNode, matched at token index
+    void addLeaf(String name, String value, int symbol, int lineNumber, String fileName, int index) {
+        ParseTreeNode leaf = addLeaf(name, value, symbol, lineNumber, fileName);
+        leaf.firstToken = index;
+        leaf.endToken = index + 1;
+        place(leaf, index);
     }
 
     public String toString() {
@@ -56,55 +515,348 @@ public class ParseTree {
     }
 
     private String toString(boolean showFileInfo) {
-        StringBuilder sb = new StringBuilder();
-        printTree(root, 0, sb, showFileInfo);
-        return sb.toString();
+        return TreeWriter.toString(root, showFileInfo);
     }
 
-    private void printTree(ParseTreeNode node, int depth, StringBuilder sb, boolean showFileInfo) {
-        // Indentation
-        for (int i = 0; i < depth; i++) {
-            sb.append("  ");
+    // Every node but the root, in document order
+    public List<ParseTreeNode> getNodes() {
+        List<ParseTreeNode> nodes = new ArrayList<>();
+        ParseTreeNode[] stack = new ParseTreeNode[64];
+        stack[0] = root;
+        int size = 1;
+        while (size > 0) {
+            ParseTreeNode node = stack[--size];
+            if (node != root) {
+                nodes.add(node);
+            }
+            List<ParseTreeNode> children = node.getChildren();
+            if (size + children.size() > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size + children.size()));
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack[size++] = children.get(i);
+            }
         }
+        return nodes;
+    }
+
+    public List<ParseTreeNode> getMatchedRules() {
+        return new ArrayList<>(matchedRules);
+    }
+
+    // Every node of rule, in document order
+    public List<ParseTreeNode> getRules(String rule) {
+        List<ParseTreeNode> rules = rulesByName.get(rule);
+        return rules == null ? Collections.emptyList() : Collections.unmodifiableList(rules);
+    }
 
-        // Node name and value
-        sb.append(node.getName());
-        if (node.getValue() != null) {
-            sb.append(": ").append(node.getValue());
+    // The nodes of rule below within, in document order. They are found by
+    // token range; without one, within is searched.
+    public List<ParseTreeNode> getRules(String rule, ParseTreeNode within) {
+        List<ParseTreeNode> result = new ArrayList<>();
+        List<ParseTreeNode> rules = rulesByName.get(rule);
+        if (rules == null) {
+            return result;
+        }
+        if (within == root) {
+            result.addAll(rules);
+            return result;
+        }
+        int first = within.getFirstToken();
+        int end = within.getEndToken();
+        if (first < 0 || end < first) {
+            collectRules(within, rule, result);
+            return result;
+        }
+        for (int i = firstFrom(rules, 0, first); i < rules.size() && rules.get(i).getFirstToken() <= end; i++) {
+            ParseTreeNode node = rules.get(i);
+            // Strictly inside the range means below within; at its edges the
+            // node may be within itself, an empty neighbour or an ancestor
+            int start = node.getFirstToken();
+            if ((start > first && start < end) || (node != within && isBelow(node, within))) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    // The rules named rule below node, in document order
+    private static void collectRules(ParseTreeNode node, String rule, List<ParseTreeNode> result) {
+        ParseTreeNode[] stack = new ParseTreeNode[64];
+        stack[0] = node;
+        int size = 1;
+        while (size > 0) {
+            ParseTreeNode current = stack[--size];
+            if (current != node && current.isRuleNode() && current.getName().equals(rule)) {
+                result.add(current);
+            }
+            List<ParseTreeNode> children = current.getChildren();
+            if (size + children.size() > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size + children.size()));
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack[size++] = children.get(i);
+            }
+        }
+    }
+
+    // The nearest rule named rule around node, or null
+    public ParseTreeNode getEnclosingRule(ParseTreeNode node, String rule) {
+        for (ParseTreeNode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent.isRuleNode() && parent.getName().equals(rule)) {
+                return parent;
+            }
+        }
+        return null;
+    }
+
+    // Whether node is below ancestor, for a node starting at one end of
+    // ancestor's tokens. Nodes around ancestor start at or before it, so the
+    // walk up stops where they start earlier.
+    private static boolean isBelow(ParseTreeNode node, ParseTreeNode ancestor) {
+        int first = ancestor.getFirstToken();
+        for (ParseTreeNode parent = node.getParent(); parent != null && parent.getFirstToken() >= first;
+                parent = parent.getParent()) {
+            if (parent == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Index of the first segment starting at or after token index
+    private int firstSegmentFrom(int index) {
+        int low = 0;
+        int high = segments.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (segments.get(middle).start < index) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Index of the first of nodes from from on, which are in document order,
+    // that starts at or after token index
+    private static int firstFrom(List<ParseTreeNode> nodes, int from, int index) {
+        int low = from;
+        int high = nodes.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (nodes.get(middle).getFirstToken() < index) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Rules starting on lines firstLine to lastLine of fileName, by line and
+    // then in document order
+    public List<ParseTreeNode> getRulesInLines(String fileName, int firstLine, int lastLine) {
+        List<ParseTreeNode> result = new ArrayList<>();
+        FileLines lines = rulesByFile.get(fileName);
+        if (lines == null) {
+            return result;
+        }
+        List<ParseTreeNode> rules = lines.byLine;
+        int low = 0;
+        int high = rules.size();
+        while (low < high) {  // First rule on or after firstLine
+            int middle = (low + high) >>> 1;
+            if (rules.get(middle).getLineNumber() < firstLine) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < rules.size() && rules.get(i).getLineNumber() <= lastLine; i++) {
+            result.add(rules.get(i));
         }
+        return result;
+    }
 
-        // Line number and file info
+    private void index(ParseTreeNode node) {
+        if (previous != null) {
+            splice(node.getName()).add(node);
+        } else {
+            rules(node.getName()).add(node);
+        }
         if (node.getLineNumber() > 0) {
-            sb.append(" (Line ").append(node.getLineNumber());
-            if (showFileInfo && node.getFileName() != null) {
-                sb.append(", File: ").append(node.getFileName());
+            if (previous != null) {
+                matchedSplice.add(node);
+            } else {
+                matchedRules.add(node);
             }
-            sb.append(")");
+            // Consecutive rules are mostly in the same file
+            if (lastFile == null || lastFile.fileName != node.getFileName()) {
+                lastFile = fileLines(node.getFileName());
+            }
+            lastFile.add(node);
         }
+    }
 
-        sb.append("\n");
+    private List<ParseTreeNode> rules(String name) {
+        List<ParseTreeNode> rules = rulesByName.get(name);
+        if (rules == null) {
+            rules = new ArrayList<>();
+            rulesByName.put(name, rules);
+        }
+        return rules;
+    }
 
-        // Children
-        for (ParseTreeNode child : node.getChildren()) {
-            printTree(child, depth + 1, sb, showFileInfo);
+    private Splice splice(String name) {
+        Splice splice = splices.get(name);
+        if (splice == null) {
+            splice = new Splice(rules(name));
+            splices.put(name, splice);
         }
+        return splice;
     }
 
-    public List<ParseTreeNode> getNodes() {
-        return nodes;
+    private FileLines fileLines(String fileName) {
+        FileLines lines = rulesByFile.get(fileName);
+        if (lines == null) {
+            lines = new FileLines(fileName);
+            if (previous != null) {
+                lines.startReparse();
+            }
+            rulesByFile.put(fileName, lines);
+        }
+        return lines;
     }
 
-    public List<ParseTreeNode> getMatchedRules() {
-        List<ParseTreeNode> rules = new ArrayList<>();
-        for (ParseTreeNode node : nodes) {
-            if (node.isRuleNode() && node.getLineNumber() > 0) {
+    // Makes the line order of the files whose rules changed, once the tree
+    // is built, so that queries only read
+    private void sortLines() {
+        for (FileLines lines : rulesByFile.values()) {
+            lines.sort();
+        }
+    }
+
+    // A list of the previous tree's index made into this tree's in place.
+    // Entries before done are this tree's, from done on the previous tree's
+    // that are still to be kept or dropped, and added ones go before those.
+    // A reparse keeps most entries where they are, so few are moved.
+    private static class Splice {
+        private final List<ParseTreeNode> rules;
+        private final List<ParseTreeNode> added = new ArrayList<>();
+        private int done;
+
+        Splice(List<ParseTreeNode> rules) {
+            this.rules = rules;
+        }
+
+        void add(ParseTreeNode node) {
+            added.add(node);
+        }
+
+        // Keeps the previous tree's entries [from, to) after the added ones,
+        // dropping those from done to from, whose places the added ones take
+        void keep(int from, int to) {
+            int free = from - done;
+            int count = added.size();
+            for (int i = 0; i < Math.min(count, free); i++) {
+                rules.set(done + i, added.get(i));
+            }
+            if (count < free) {
+                rules.subList(done + count, from).clear();
+            } else if (count > free) {
+                rules.addAll(from, added.subList(free, count));
+            }
+            done += count + to - from;
+            added.clear();
+        }
+
+        // Drops the previous tree's entries that were not kept
+        void finish() {
+            keep(rules.size(), rules.size());
+        }
+    }
+
+    // The rules of one file in document order, which is also line order
+    // unless the file was included more than once. Otherwise byLine is a
+    // copy sorted by line.
+    private static class FileLines {
+        private final String fileName;
+        private final List<ParseTreeNode> rules = new ArrayList<>();
+        private List<ParseTreeNode> byLine = rules;
+        private boolean sorted = true;
+        private boolean changed;
+        private int lastLine;        // Lines start at 1
+        private Splice splice;       // While reparsing
+        private boolean keptSorted;  // The previous tree's rules were in line order
+
+        FileLines(String fileName) {
+            this.fileName = fileName;
+        }
+
+        void add(ParseTreeNode node) {
+            int line = node.getLineNumber();
+            if (lastLine > line) {
+                sorted = false;
+            }
+            lastLine = line;
+            if (splice != null) {
+                splice.add(node);
+            } else {
                 rules.add(node);
             }
+            changed = true;
+        }
+
+        // Adds rules of another tree, which are in line order if inOrder
+        void addAll(List<ParseTreeNode> block, boolean inOrder) {
+            if (lastLine > block.get(0).getLineNumber() || (!inOrder && block.size() > 1)) {
+                sorted = false;
+            }
+            lastLine = block.get(block.size() - 1).getLineNumber();
+            rules.addAll(block);
+            changed = true;
+        }
+
+        void startReparse() {
+            splice = new Splice(rules);
+            keptSorted = sorted;
+            sorted = true;
+            lastLine = 0;
+            changed = true;
+        }
+
+        // Keeps the previous tree's rules [from, to), whose first and last
+        // the edit moves to lines firstLine and lastLine
+        void keep(int from, int to, int firstLine, int lastLine) {
+            if (this.lastLine > firstLine || (!keptSorted && to - from > 1)) {
+                sorted = false;
+            }
+            this.lastLine = lastLine;
+            splice.keep(from, to);
+        }
+
+        void finishReparse() {
+            splice.finish();
+            splice = null;
+        }
+
+        void sort() {
+            if (!changed) {
+                return;
+            }
+            if (sorted) {
+                byLine = rules;
+            } else {
+                byLine = new ArrayList<>(rules);
+                byLine.sort((a, b) -> Integer.compare(a.getLineNumber(), b.getLineNumber()));  // Stable
+            }
+            changed = false;
         }
-        return rules;
     }
 
     public ParseTreeNode getRoot() {
         return root;
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,22 @@
 package parser;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 public class ParseTreeNode {
     private String name;
     private String value;
+    private int symbol;
     private int lineNumber;
     private String fileName;
     private ParseTreeNode parent;
     private List<ParseTreeNode> children;
+    int firstToken = -1;  // Token indexes [firstToken, endToken) the node was parsed from, -1 if unknown
+    int endToken = -1;
+    boolean reusable;     // Parsed without errors, so Parser.reparse may move it to a new tree
+    Segment segment;      // Of the tree, which Parser.reparse moves the node with; null if it stays
 
     public ParseTreeNode(String name, int lineNumber) {
         this(name, null, lineNumber, null);
@@ -20,8 +27,14 @@ public class ParseTreeNode {
     }
 
     public ParseTreeNode(String name, String value, int lineNumber, String fileName) {
+        this(name, value, -1, lineNumber, fileName);
+    }
+
+    // symbol is the SymbolTable id of an identifier or keyword value, -1 otherwise
+    public ParseTreeNode(String name, String value, int symbol, int lineNumber, String fileName) {
         this.name = name;
         this.value = value;
+        this.symbol = symbol;
         this.lineNumber = lineNumber;
         this.fileName = fileName;
         this.children = new ArrayList<>();
@@ -36,14 +49,26 @@ public class ParseTreeNode {
         return value;
     }
 
+    public int getSymbol() {
+        return symbol;
+    }
+
     public int getLineNumber() {
-        return lineNumber;
+        return segment != null && Objects.equals(fileName, segment.file) ? lineNumber + segment.lines : lineNumber;
     }
 
     public String getFileName() {
         return fileName;
     }
 
+    public int getFirstToken() {
+        return segment == null ? firstToken : firstToken + segment.tokens;
+    }
+
+    public int getEndToken() {
+        return segment == null ? endToken : endToken + segment.tokens;
+    }
+
     public ParseTreeNode getParent() {
         return parent;
     }
@@ -63,6 +88,18 @@ public class ParseTreeNode {
         children.add(child);
     }
 
+    // Puts the node in segment, or in none when it is null, without
+    // changing what the getters return
+    void moveWith(Segment segment) {
+        int first = getFirstToken();
+        int end = getEndToken();
+        int line = getLineNumber();
+        this.segment = segment;
+        firstToken = segment == null ? first : first - segment.tokens;
+        endToken = segment == null ? end : end - segment.tokens;
+        lineNumber = segment != null && Objects.equals(fileName, segment.file) ? line - segment.lines : line;
+    }
+
     public boolean isRuleNode() {
         return value == null;
     }
@@ -76,53 +113,44 @@ public class ParseTreeNode {
     }
 
     private String toStringWithFileInfo(boolean showFileInfo) {
-        StringBuilder sb = new StringBuilder();
-        buildTreeString(this, 0, sb, showFileInfo);
-        return sb.toString();
-    }
-
-    private void buildTreeString(ParseTreeNode node, int depth, StringBuilder sb, boolean showFileInfo) {
-        // Indentation
-        for (int i = 0; i < depth; i++) {
-            sb.append("  ");
-        }
-
-        // Node name and value
-        sb.append(node.name);
-        if (node.value != null) {
-            sb.append(": ").append(node.value);
-        }
-
-        // Line number and file info
-        if (node.lineNumber > 0) {
-            sb.append(" (Line ").append(node.lineNumber);
-            if (showFileInfo && node.fileName != null) {
-                sb.append(", File: ").append(node.fileName);
-            }
-            sb.append(")");
-        }
-
-        sb.append("\n");
-
-        // Children
-        for (ParseTreeNode child : node.children) {
-            buildTreeString(child, depth + 1, sb, showFileInfo);
-        }
+        return TreeWriter.toString(this, showFileInfo);
     }
 
     // Helper methods for tree analysis
+
+    // Rules with a line below and including this node, in document order.
+    // Walked with an explicit stack, so any depth works.
     public List<ParseTreeNode> getMatchedRules() {
         List<ParseTreeNode> rules = new ArrayList<>();
-        collectRuleNodes(this, rules);
+        ParseTreeNode[] stack = new ParseTreeNode[64];
+        stack[0] = this;
+        int size = 1;
+        while (size > 0) {
+            ParseTreeNode node = stack[--size];
+            if (node.isRuleNode() && node.lineNumber > 0) {
+                rules.add(node);
+            }
+            // Children go on in reverse, so the first comes off next
+            List<ParseTreeNode> children = node.getChildren();
+            if (size + children.size() > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(stack.length * 2, size + children.size()));
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack[size++] = children.get(i);
+            }
+        }
         return rules;
     }
 
-    private void collectRuleNodes(ParseTreeNode node, List<ParseTreeNode> rules) {
-        if (node.isRuleNode() && node.lineNumber > 0) {
-            rules.add(node);
-        }
-        for (ParseTreeNode child : node.children) {
-            collectRuleNodes(child, rules);
-        }
+    // A reparse moves the nodes it takes over from the previous tree without
+    // touching them. A tree splits its tokens into segments, and a node keeps
+    // its positions relative to the segment it starts in, so an edit moves
+    // the nodes after it by moving their segments. Only the segment the edit
+    // falls into is split, and the nodes of its smaller part rewritten.
+    static final class Segment {
+        int start;    // First token index of the segment
+        int tokens;   // Added to the token indexes of its nodes
+        int lines;    // and to their lines, in file
+        String file;
     }
-}
\ No newline at end of file
+}
@@ -1,128 +1,422 @@
 package parser;
 
+import lexer.LexedDocument;
 import lexer.Token;
+import lexer.TokenBuffer;
+import lexer.TokenCursor;
 import lexer.TokenType;
 import error.CompilerError;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.ListIterator;
-
-public class Parser {
-    private List<Token> tokens;
-    private ListIterator<Token> tokenIterator;
-    private Token currentToken;
-    private List<CompilerError> errors;
-    private List<CompilerError> success;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class Parser extends TokenMatcher {
+    public static final int DEFAULT_MAX_ERRORS = 100;
+    private static final int LOOKAHEAD = 4;  // Tokens past a rule that its predictions may have read
+
+    // Operator levels, loosest first. A level is a rule whose operands are
+    // rules of the next level, down to Factor; OPERATORS holds the token type
+    // of each level's operator and operatorLevel() the precedence table.
+    private static final int LOGIC = 0;
+    private static final int RELATION = 1;
+    private static final int SUM = 2;
+    private static final int PRODUCT = 3;
+    private static final int FACTOR = 4;
+    private static final int RELATION_DONE = 5;  // A Condition past its REL_OP
+    private static final int PARENTHESES = 6;    // A Factor past its (
+    private static final String[] LEVEL_RULES = {"ConditionExpression", "Condition", "Expression", "Term", "Factor"};
+    private static final TokenType[] OPERATORS = {TokenType.LOGIC_OP, TokenType.REL_OP, TokenType.ARITH_OP, TokenType.ARITH_OP};
+
+    // Tree builder of validate(), which keeps nothing
+    private static final TreeBuilder NO_TREE = new TreeBuilder() {
+        @Override
+        public void startsAt(int index) {
+        }
+
+        @Override
+        public void endsAt(int index) {
+        }
+    };
+
     private ParseTree parseTree;
+    private TreeBuilder builder;        // parseTree, the tree of another parse... method, or NO_TREE
+    private EventLog events;            // Events of a Division parsed by parseParallel
+    private boolean reparsing;          // Subtrees are taken from the tree before the edit
+    private int editStart;              // Old tokens [editStart, editEnd) were replaced,
+    private int editEnd;                // and the tokens after them moved by editShift
+    private int editShift;
+    private int[] levels = new int[32];  // Open levels of the expression being parsed
+    private int levelCount;
 
     public Parser(List<Token> tokens) {
-        this.tokens = tokens;
-        this.tokenIterator = tokens.listIterator();  // Use ListIterator
-        this.errors = new ArrayList<>();
-        this.success = new ArrayList<>();
-        this.parseTree = new ParseTree();
+        this(new TokenWindow(tokens));
+    }
 
-        if (tokenIterator.hasNext()) {
-            currentToken = tokenIterator.next();
-        }
+    // Consumes tokens on demand; only a bounded lookahead window is kept
+    public Parser(Iterator<Token> tokens) {
+        this(new TokenWindow(tokens));
+    }
+
+    // Reads the compact buffer directly, without creating Token objects
+    public Parser(TokenBuffer tokens) {
+        this((TokenCursor) tokens);
+    }
+
+    private Parser(TokenCursor tokens) {
+        this(tokens, new ParseTree());
+    }
+
+    private Parser(TokenCursor tokens, ParseTree parseTree) {
+        super(tokens, parseTree);
+        this.parseTree = parseTree;
+        this.builder = parseTree;
     }
     public ParseTree parse() {
         parseProgram();
         return parseTree;
     }
-    public List<CompilerError> getErrors() {
+
+    // Builds the flat ArenaTree instead of ParseTreeNodes. The tree reads
+    // token values and lines from the input later, so it cannot be a stream.
+    public ArenaTree parseArena() {
+        if (tokens instanceof TokenWindow && !((TokenWindow) tokens).isRandomAccess()) {
+            throw new IllegalStateException("An ArenaTree needs tokens that stay readable at any index");
+        }
+        ArenaTree arena = new ArenaTree(tokens);
+        builder = arena;
+        listeners[0] = arena;
+        parseProgram();
+        arena.trim();
+        return arena;
+    }
+
+    // Builds a SharedTree, which keeps identical subtrees once. Like an
+    // ArenaTree it reads positions from the input later, so not from a stream.
+    public SharedTree parseShared() {
+        if (tokens instanceof TokenWindow && !((TokenWindow) tokens).isRandomAccess()) {
+            throw new IllegalStateException("A SharedTree needs tokens that stay readable at any index");
+        }
+        SharedTree shared = new SharedTree(tokens);
+        builder = shared;
+        listeners[0] = shared;
+        parseProgram();
+        shared.finish();
+        return shared;
+    }
+
+    // Builds the immutable red/green tree and returns its ROOT. Positions are
+    // kept in the tree, so the tokens are not needed afterwards.
+    public RedNode parseGreen() {
+        GreenBuilder green = new GreenBuilder();
+        builder = green;
+        listeners[0] = green;
+        parseProgram();
+        return green.finish();
+    }
+
+    // Builds a ParseTree whose expressions leave out the operator rules that
+    // hold a single operand, see FlatExpressionTree. Listeners still see the
+    // events of parse(), and parse() and TableParser keep the full shape.
+    public ParseTree parseFlat() {
+        FlatExpressionTree flat = new FlatExpressionTree(Set.of(LEVEL_RULES));
+        builder = flat;
+        listeners[0] = flat;
+        parseProgram();
+        return flat.getTree();
+    }
+
+    // Only checks the input against the grammar: no nodes are made, and the
+    // errors are those parse() would report. Added listeners still see the parse.
+    public List<CompilerError> validate() {
+        builder = NO_TREE;
+        listeners[0] = NO_TREE;
+        parseProgram();
         return errors;
     }
 
-    public List<CompilerError> getSuccess() {
-        return success;
+    // Parses again after the last edit of document, whose tokens this parser
+    // reads, where previous is the tree of the document before the edit.
+    // ClassDeclarations, MethodDeclarations and BlockStatements that parsed
+    // without errors, and whose tokens and lookahead the edit did not touch,
+    // are moved over from previous instead of being parsed again, so previous
+    // must not be used afterwards. The result is the same as parse().
+    public ParseTree reparse(ParseTree previous, LexedDocument document) {
+        this.editStart = document.getEditStart();
+        this.editEnd = document.getEditOldEnd();
+        this.editShift = document.getEditNewEnd() - document.getEditOldEnd();
+        parseTree.startReparse(previous, editStart, editEnd, editShift, document.getFileName(), document.getEditLineShift());
+        reparsing = true;
+        try {
+            parse();
+        } finally {
+            reparsing = false;
+        }
+        // Only now, since the previous tree is searched by its old token indexes
+        parseTree.finishReparse();
+        return parseTree;
     }
 
-    private void advance() {
-        if (tokenIterator.hasNext()) {
-            currentToken = tokenIterator.next();
-        } else {
-            currentToken = null;
-        }
-    }
-    private void match(TokenType expectedType) {
-        if (currentToken != null && currentToken.getType() == expectedType) {
-            parseTree.addNode(currentToken);
-            success.add(new CompilerError(
-                    currentToken != null ? currentToken.getLineNumber() : -1,
-                    "Matched Rule used: " + expectedType,
-                    currentToken != null ? currentToken.getFileName() : null
-            ));
-            advance();
-        } else {
-            String found = currentToken != null ?
-                    "'" + currentToken.getValue() + "' (" + currentToken.getType() + ")" :
-                    "end of input";
+    // Parses every top-level Division on its own Parser in pool and joins the
+    // trees, errors and listener events in source order. The result is the
+    // same as parse(); when the braces do not split the program cleanly into
+    // Divisions, or the errors run over the budget, it is parse().
+    public ParseTree parseParallel(ForkJoinPool pool) {
+        int[] bounds = splitDivisions();
+        if (bounds == null || bounds.length < 3) {
+            return parse();
+        }
+
+        // A few batches per worker, so small Divisions do not cost a task each
+        int divisions = bounds.length - 1;
+        int batchSize = Math.max(1, divisions / (pool.getParallelism() * 4));
+        List<ForkJoinTask<Parser[]>> batches = new ArrayList<>();
+        for (int first = 0; first < divisions; first += batchSize) {
+            int from = first;
+            int to = Math.min(divisions, first + batchSize);
+            batches.add(pool.submit(() -> parseDivisions(bounds, from, to)));
+        }
+
+        List<Parser> parts = new ArrayList<>();
+        int errorCount = 0;
+        for (ForkJoinTask<Parser[]> batch : batches) {
+            for (Parser part : batch.join()) {
+                parts.add(part);
+                // Each part starts in the state a sequential parse is in after a
+                // Division that ended cleanly on its own closing brace
+                if (part.recovering || part.aborted || part.position != bounds[parts.size()]) {
+                    return parse();
+                }
+                errorCount += part.errors.size();
+            }
+        }
+        if (errorCount >= maxErrors) {
+            return parse();
+        }
 
-            errors.add(new CompilerError(
-                    currentToken != null ? currentToken.getLineNumber() : -1,
-                    "Expected " + expectedType + " but found " + found,
-                    currentToken != null ? currentToken.getFileName() : null
+        enterRule("Program", currentLine(), currentFile());
+        match(TokenType.START_STATEMENT);
+        enterRule("ClassDeclarationList", currentLine(), currentFile());
+        for (int i = 0; i < parts.size(); i++) {
+            Parser part = parts.get(i);
+            parseTree.addSubtrees(part.parseTree);
+            for (int j = 1; j < listeners.length; j++) {
+                part.events.replay(listeners[j], tokens);
+            }
+            errors.addAll(part.errors);
+        }
+        position = bounds[divisions];
+        exitRule("ClassDeclarationList");
+        match(TokenType.END_STATEMENT);
+        exitRule("Program");
+        return parseTree;
+    }
 
-            ));
+    private Parser[] parseDivisions(int[] bounds, int from, int to) {
+        Parser[] parts = new Parser[to - from];
+        for (int i = from; i < to; i++) {
+            // The whole input, so lookahead past the Division sees what parse() sees
+            Parser part = new Parser(tokens);
+            part.position = bounds[i];
+            part.maxErrors = maxErrors;
+            if (listeners.length > 1) {
+                part.events = new EventLog();
+                part.addListener(part.events);
+            }
+            part.parseClassDeclaration();
+            parts[i - from] = part;
         }
+        return parts;
     }
-    private int getCurrentPosition() {
-        // Returns the index of the token that would be returned by next()
-        return tokenIterator.nextIndex() - 1;
+
+    // Token index of every top-level Division followed by that of End, found
+    // by balancing { and }, or null if the program does not have that shape
+    private int[] splitDivisions() {
+        boolean randomAccess = !(tokens instanceof TokenWindow) || ((TokenWindow) tokens).isRandomAccess();
+        if (!randomAccess || !tokens.hasToken(0) || tokens.getType(0) != TokenType.START_STATEMENT) {
+            return null;
+        }
+        int[] bounds = new int[16];
+        int count = 0;
+        int index = 1;
+        while (tokens.hasToken(index) && tokens.getType(index) == TokenType.CLASS) {
+            if (count + 1 == bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count++] = index;
+
+            int depth = 0;
+            for (index++; ; index++) {
+                if (!tokens.hasToken(index)) {
+                    return null;
+                }
+                TokenType type = tokens.getType(index);
+                if (type == TokenType.BRACES && tokens.valueEquals(index, "{")) {
+                    depth++;
+                } else if (type == TokenType.BRACES && tokens.valueEquals(index, "}")) {
+                    if (--depth == 0) {
+                        break;
+                    }
+                    if (depth < 0) {
+                        return null;
+                    }
+                } else if (depth == 0 && (type == TokenType.CLASS || type == TokenType.END_STATEMENT)) {
+                    return null;  // A Division without a body
+                }
+            }
+            index++;
+        }
+        if (!tokens.hasToken(index) || tokens.getType(index) != TokenType.END_STATEMENT) {
+            return null;
+        }
+        bounds[count++] = index;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    private boolean currentValueIs(String text) {
+        return tokens.valueEquals(position, text);
     }
-    private void resetToPosition(int position) {
-        if (position < 0 || position >= tokens.size()) {
-            currentToken = null;
+
+    // Lookahead k tokens past the current one. Unlike match() this never
+    // reports to the listeners or records an error. No prediction looks
+    // further than 4 tokens ahead, so choosing a class item or statement is
+    // constant time and nothing is ever parsed twice at the same position.
+    private boolean peekIs(int k, TokenType type) {
+        return Prediction.peekIs(tokens, position + k, type);
+    }
+
+    private void enterRule(String rule, int lineNumber, String fileName) {
+        for (ParseListener listener : listeners) {
+            listener.enterRule(rule, lineNumber, fileName);
+        }
+        builder.startsAt(position);
+    }
+
+    private void exitRule(String rule) {
+        builder.endsAt(position);
+        for (ParseListener listener : listeners) {
+            listener.exitRule(rule);
+        }
+    }
+
+    // A rule entered outside of recovery that reported nothing can be reused
+    // by reparse. Called right before exitRule.
+    private void markReusable(int errorCount, boolean wasRecovering) {
+        if (builder != parseTree) {
             return;
         }
+        parseTree.setReusable(!wasRecovering && errors.size() == errorCount);
+    }
+
+    // Takes the rule starting at the current token from the previous tree
+    // when reparsing, if the edit cannot have changed how it parses
+    private boolean reuse(String rule) {
+        if (!reparsing || recovering || aborted) {
+            return false;
+        }
+        boolean afterEdit = position >= editEnd + editShift;
+        if (position >= editStart && !afterEdit) {
+            return false;
+        }
+        int oldPosition = afterEdit ? position - editShift : position;
+        ParseTreeNode node = parseTree.previousRule(rule, oldPosition);
+        if (node == null || !node.reusable || (!afterEdit && node.getEndToken() + LOOKAHEAD > editStart)) {
+            return false;
+        }
 
-        int currentPos = tokenIterator.nextIndex() - 1;
-        if (position == currentPos) return;
+        parseTree.reuse(node);
+        int shift = afterEdit ? editShift : 0;
+        for (int i = 1; i < listeners.length; i++) {
+            replay(node, listeners[i], shift);
+        }
+        position = node.getEndToken() + shift;
+        return true;
+    }
 
-        if (position < currentPos) {
-            // Move backward
-            while (currentPos > position && tokenIterator.hasPrevious()) {
-                tokenIterator.previous();
-                currentPos--;
+    // Gives a listener the events parsing subtree at its tokens moved by
+    // shift would have given it. Walked with an explicit stack, so any depth
+    // works.
+    private void replay(ParseTreeNode subtree, ParseListener listener, int shift) {
+        if (!subtree.isRuleNode()) {
+            replayLeaf(subtree, listener, shift);
+            return;
+        }
+        ParseTreeNode[] stack = new ParseTreeNode[64];
+        int[] next = new int[64];  // Index of the child of stack[i] to replay next
+        stack[0] = subtree;
+        int size = 1;
+        replayEnter(subtree, listener, shift);
+        while (size > 0) {
+            ParseTreeNode node = stack[size - 1];
+            List<ParseTreeNode> children = node.getChildren();
+            if (next[size - 1] == children.size()) {
+                listener.exitRule(node.getName());
+                size--;
+                continue;
             }
-        } else {
-            // Move forward
-            while (currentPos < position && tokenIterator.hasNext()) {
-                tokenIterator.next();
-                currentPos++;
+            ParseTreeNode child = children.get(next[size - 1]++);
+            if (!child.isRuleNode()) {
+                replayLeaf(child, listener, shift);
+                continue;
+            }
+            if (size == stack.length) {
+                stack = Arrays.copyOf(stack, size * 2);
+                next = Arrays.copyOf(next, size * 2);
             }
+            stack[size] = child;
+            next[size] = 0;
+            size++;
+            replayEnter(child, listener, shift);
         }
-        currentToken = tokens.get(position);
     }
+
+    private void replayEnter(ParseTreeNode node, ParseListener listener, int shift) {
+        int index = node.getFirstToken() + shift;
+        boolean present = tokens.hasToken(index);
+        listener.enterRule(node.getName(), present ? tokens.getLineNumber(index) : -1,
+                present ? tokens.getFileName(index) : null);
+    }
+
+    private void replayLeaf(ParseTreeNode node, ParseListener listener, int shift) {
+        int index = node.getFirstToken() + shift;
+        listener.matched(tokens.getType(index), tokens, index);
+    }
+
     private void parseProgram() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("Program",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("Program",lineNumber,fileName);
         match(TokenType.START_STATEMENT);
         parseClassDeclarationList();
         match(TokenType.END_STATEMENT);
-        parseTree.endRule();
+        exitRule("Program");
     }
     private void parseClassDeclarationList() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("ClassDeclarationList",lineNumber,fileName);
-        while (currentToken != null && currentToken.getType() == TokenType.CLASS) {
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("ClassDeclarationList",lineNumber,fileName);
+        while (hasCurrent() && currentType() == TokenType.CLASS) {
             parseClassDeclaration();
         }
-        parseTree.endRule();
+        exitRule("ClassDeclarationList");
     }
     private void parseClassDeclaration() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("ClassDeclaration",lineNumber,fileName);
+        if (reuse("ClassDeclaration")) {
+            return;
+        }
+        int errorCount = errors.size();
+        boolean wasRecovering = recovering;
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("ClassDeclaration",lineNumber,fileName);
         match(TokenType.CLASS);
         match(TokenType.IDENTIFIER);
 
-        if (currentToken != null && currentToken.getType() == TokenType.INHERITANCE) {
+        if (hasCurrent() && currentType() == TokenType.INHERITANCE) {
             match(TokenType.INHERITANCE);
             match(TokenType.IDENTIFIER);
         }
@@ -130,32 +424,35 @@ public class Parser {
         match(TokenType.BRACES); // {
         parseClassImplementation();
         match(TokenType.BRACES); // }
-        parseTree.endRule();
+        markReusable(errorCount, wasRecovering);
+        exitRule("ClassDeclaration");
     }
     private void parseClassImplementation() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("ClassImplementation",lineNumber,fileName);
-        while (currentToken != null && currentToken.getType() != TokenType.BRACES) {
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("ClassImplementation",lineNumber,fileName);
+        // A missing } ends the class at the next Division or End
+        while (hasCurrent() && currentType() != TokenType.BRACES
+                && currentType() != TokenType.CLASS && currentType() != TokenType.END_STATEMENT) {
             parseClassItem();
         }
-        parseTree.endRule();
+        exitRule("ClassImplementation");
     }
     private void parseClassItem() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("ClassItem",lineNumber,fileName);
-        if (currentToken != null) {
-            /*if (isValidType(currentToken.getType())) {
-                if (isLikelyMethodDeclaration()) {
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("ClassItem",lineNumber,fileName);
+        if (hasCurrent()) {
+            /*if (isValidType(currentType())) {
+                if (Prediction.isLikelyMethodDeclaration(tokens, position)) {
                     parseMethodDeclaration();
-                } else if(isAssignment()){
+                } else if(Prediction.isAssignment(tokens, position)){
                     parseAssignment();
                 } else {
                     parseVarDeclaration();
                 }
             }*/
-            switch (currentToken.getType()) {
+            switch (currentType()) {
 
                 case INTEGER:
                 case SINTEGER:
@@ -166,9 +463,9 @@ public class Parser {
                 case BOOLEAN:
                 case VOID:
                     // Check if this is a method declaration (has parentheses after identifier)
-                    if (isLikelyMethodDeclaration()) {
+                    if (Prediction.isLikelyMethodDeclaration(tokens, position)) {
                         parseMethodDeclaration();
-                    } else if(isAssignment()){
+                    } else if(Prediction.isAssignment(tokens, position)){
                         parseAssignment();
                     } else {
                         parseVarDeclaration();
@@ -186,88 +483,42 @@ public class Parser {
                     parseProgram();
                     break;
                 case IDENTIFIER:
-                    if (isFunctionCall()) {
+                    if (Prediction.looksLikeFuncCall(tokens, position)) {
                         parseFuncCall(); //  id id = 20;  id id () {}  id id; id id ();
-                    } else if(isAssignment()){
+                    } else if(Prediction.isAssignment(tokens, position)){
+                        if (peekIs(1, TokenType.IDENTIFIER)) {
+                            advance();  // w w = 5; the user-defined type name is not part of the IDList
+                        }
                         parseAssignment();
-                    } else if (isLikelyMethodDeclaration()) {
+                    } else if (Prediction.isLikelyMethodDeclaration(tokens, position)) {
                         parseMethodDeclaration();
-                    } else if (isVarDecl()){
+                    } else if (Prediction.isVarDecl(tokens, position)){
                         parseVarDeclaration();
                     }
                     else {
-                        errors.add(new CompilerError(
-                                currentToken.getLineNumber(),
-                                currentToken.getFileName(),
-                                "Not Matched Error: '" + currentToken.getValue() + "' is not a valid Type"
-                        ));
-                        advance();
+                        report("Not Matched Error: '" + currentValue() + "' is not a valid Type");
+                        skipClassItem();
                     }
                     break;
                 default:
-                    errors.add(new CompilerError(
-                            currentToken.getLineNumber(),
-                            currentToken.getFileName(),
-                            "Not Matched Error: '" + currentToken.getValue() + "' is an unexpected token in class implementation"
-                    ));
-                    advance();
+                    report("Not Matched Error: '" + currentValue() + "' is an unexpected token in class implementation");
+                    skipClassItem();
             }
         }
-        parseTree.endRule();
-    }
-    private boolean isVarDecl(){
-        int currentPosition = getCurrentPosition();
-        boolean isVar = false;
-        try {
-            parseType();  // Skip type
-            if (currentToken == null || currentToken.getType() != TokenType.IDENTIFIER) {
-                return false;
-            }
-            advance();  // Skip identifier
-
-            // Check if next token is ';'
-            isVar = currentToken != null && currentToken.getType() == TokenType.SEMICOLON && currentToken.getValue().equals(";");
-            return isVar;
-        } finally {
-            // Restore position
-            resetToPosition(currentPosition);
-        }
-    }
-    private boolean isLikelyMethodDeclaration() {
-        // Save current position
-        int currentPosition = getCurrentPosition();
-        boolean isMethod = false;
-        try {
-            parseType();  // Skip type
-            if (currentToken == null || currentToken.getType() != TokenType.IDENTIFIER) {
-                return false;
-            }
-            advance();  // Skip identifier
-            advance();  // Skip (
-            advance();  // Skip )
-
-            // Check if next token is '('
-            isMethod = currentToken != null && currentToken.getType() == TokenType.BRACES && currentToken.getValue().equals("{");
-            return isMethod;
-        } finally {
-            // Restore position
-            resetToPosition(currentPosition);
-            /*if(!isValidType(currentToken.getType()) && isMethod){
-                resetToPosition(currentPosition);
-            }*/
-        }
+        exitRule("ClassItem");
     }
     private void parseMethodDeclaration() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("MethodDeclaration",lineNumber,fileName);
+        if (reuse("MethodDeclaration")) {
+            return;
+        }
+        int errorCount = errors.size();
+        boolean wasRecovering = recovering;
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("MethodDeclaration",lineNumber,fileName);
         try {
-            if (currentToken == null /*|| !isValidType(currentToken.getType())*/) {
-                errors.add(new CompilerError(
-                        currentToken != null ? currentToken.getLineNumber() : -1,
-                        currentToken != null ? currentToken.getFileName() : null,
-                        "Not Matched Error: '" + (currentToken != null ? currentToken.getValue() : "null") + "' is not a valid Type"
-                ));
+            if (!hasCurrent() /*|| !isValidType(currentType())*/) {
+                report("Not Matched Error: '" + (hasCurrent() ? currentValue() : "null") + "' is not a valid Type");
                 return;
             }
 
@@ -275,7 +526,7 @@ public class Parser {
             parseFuncDeclaration();
 
             // Check which form we have
-            if (currentToken != null && currentToken.getType() == TokenType.SEMICOLON) {
+            if (hasCurrent() && currentType() == TokenType.SEMICOLON) {
                 // Form 1: FuncDecl ;
                 match(TokenType.SEMICOLON);
             } else {
@@ -283,8 +534,8 @@ public class Parser {
                 match(TokenType.BRACES); // {
 
                 // Parse variable declarations
-                while (currentToken != null && isValidType(currentToken.getType())) {
-                    if(isAssignment()){
+                while (hasCurrent() && Prediction.isValidType(currentType())) {
+                    if(Prediction.isAssignment(tokens, position)){
                         parseAssignment();
                     } else{
                         parseVarDeclaration();
@@ -297,13 +548,14 @@ public class Parser {
                 match(TokenType.BRACES); // }
             }
         } finally {
-            parseTree.endRule();
+            markReusable(errorCount, wasRecovering);
+            exitRule("MethodDeclaration");
         }
     }
     private void parseFuncDeclaration() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("FuncDeclaration",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("FuncDeclaration",lineNumber,fileName);
 
         // Rule 7: FuncDecl → Type ID ( ParameterList )
         parseType();
@@ -312,254 +564,280 @@ public class Parser {
         parseParameterList();
         match(TokenType.BRACES); // )
 
-        parseTree.endRule();
+        exitRule("FuncDeclaration");
     }
 
     private void parseParameterList() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("ParameterList",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("ParameterList",lineNumber,fileName);
 
         // Rule 9: ParameterList → ε | None | NonEmptyParameterList
-        if (currentToken != null && currentToken.getType() == TokenType.VOID) {
+        if (hasCurrent() && currentType() == TokenType.VOID) {
             match(TokenType.VOID);  // Special case for "None" in parameters
-        } else if (currentToken != null && currentToken.getType() != TokenType.BRACES) {
+        } else if (hasCurrent() && currentType() != TokenType.BRACES) {
             parseNonEmptyParameterList();
         }
         // Else ε case (empty parameter list)
 
-        parseTree.endRule();
+        exitRule("ParameterList");
     }
     private void parseNonEmptyParameterList() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("NonEmptyParameterList",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("NonEmptyParameterList",lineNumber,fileName);
 
         // Rule 10: NonEmptyParameterList → Type ID | NonEmptyParameterList , Type ID
         parseType();
         match(TokenType.IDENTIFIER);
 
-        while (currentToken != null && currentToken.getType() == TokenType.COMMA) {
+        while (hasCurrent() && currentType() == TokenType.COMMA) {
             match(TokenType.COMMA);
             parseType();
             match(TokenType.IDENTIFIER);
         }
 
-        parseTree.endRule();
+        exitRule("NonEmptyParameterList");
     }
     private void parseVarDeclaration() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("VarDeclaration",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("VarDeclaration",lineNumber,fileName);
         parseType();
         parseIDList();
         match(TokenType.SEMICOLON);
-        parseTree.endRule();
+        exitRule("VarDeclaration");
     }
     private void parseAssignmentVarDeclaration() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("VarDeclaration",lineNumber,fileName);
-        if(isValidType(currentToken.getType())) // int x =5; x =5; w w = 5;
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("VarDeclaration",lineNumber,fileName);
+        if (hasCurrent() && Prediction.isValidType(currentType())) // int x =5; x =5; w w = 5;
             parseType();
         parseIDList(); // int x =6; int x,z = 5; w , w = 5
-        parseTree.endRule();
+        exitRule("VarDeclaration");
     }
     private void parseType() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("Type",lineNumber,fileName);
-        if (currentToken != null && (
-                currentToken.getType() == TokenType.INTEGER ||
-                        currentToken.getType() == TokenType.SINTEGER ||
-                        currentToken.getType() == TokenType.CHARACTER ||
-                        currentToken.getType() == TokenType.STRING ||
-                        currentToken.getType() == TokenType.FLOAT ||
-                        currentToken.getType() == TokenType.SFLOAT ||
-                        currentToken.getType() == TokenType.BOOLEAN ||
-                        currentToken.getType() == TokenType.VOID)) {
-            match(currentToken.getType());
-
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("Type",lineNumber,fileName);
+        if (hasCurrent() && (
+                currentType() == TokenType.INTEGER ||
+                        currentType() == TokenType.SINTEGER ||
+                        currentType() == TokenType.CHARACTER ||
+                        currentType() == TokenType.STRING ||
+                        currentType() == TokenType.FLOAT ||
+                        currentType() == TokenType.SFLOAT ||
+                        currentType() == TokenType.BOOLEAN ||
+                        currentType() == TokenType.VOID)) {
+            match(currentType());
+
+        } else if (hasCurrent()) {
+            report("Not Matched Error: Expected valid type but found '" + currentValue() + "' (" + currentType() + ")");
+            if (!atSyncToken()) {
+                advance();
+            }
         } else {
-            errors.add(new CompilerError(
-                    currentToken.getLineNumber(),
-                    "Not Matched Error: Expected valid type but found '" + currentToken.getValue() + "' (" + currentToken.getType() + ")",
-                    currentToken.getFileName()
-            ));
-            advance();
+            report("Not Matched Error: Expected valid type but found end of input");
         }
-        parseTree.endRule();
+        exitRule("Type");
     }
 
     private void parseIDList() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("IDList",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("IDList",lineNumber,fileName);
         match(TokenType.IDENTIFIER);// w w
-        while (currentToken != null && currentToken.getType() == TokenType.COMMA) { // ,
+        while (hasCurrent() && currentType() == TokenType.COMMA) { // ,
             match(TokenType.COMMA);
             match(TokenType.IDENTIFIER);
         }
-        parseTree.endRule();
+        exitRule("IDList");
     }
     private void parseUsingCommand() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("UsingCommand",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("UsingCommand",lineNumber,fileName);
         match(TokenType.INCLUSION);
         match(TokenType.BRACES); // (
         match(TokenType.STRING); // Filename
         match(TokenType.BRACES); // )
         match(TokenType.SEMICOLON);
-        parseTree.endRule();
+        exitRule("UsingCommand");
     }
 
     private void parseFuncCall() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("FuncCall",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("FuncCall",lineNumber,fileName);
         match(TokenType.IDENTIFIER); // Function name
         match(TokenType.BRACES); // (
         parseArgumentList();
         match(TokenType.BRACES); // )
         match(TokenType.SEMICOLON);
-        parseTree.endRule();
-    }
-    private boolean isAssignment() {
-        int pos = getCurrentPosition();
-        boolean isAssignment = false;
-        try {
-            parseType(); // x = 5;
-            // Look ahead to see if this is an assignment
-            match(TokenType.IDENTIFIER);
-            isAssignment = currentToken != null && currentToken.getType() == TokenType.ASSIGN_OP;
-            return isAssignment;
-        } finally {
-            resetToPosition(pos);
-            if(!isValidType(currentToken.getType()) && isAssignment){
-                resetToPosition(pos+1);
-            }
-        }
+        exitRule("FuncCall");
     }
     private void parseArgumentList() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("ArgumentList",lineNumber,fileName);
-        if (currentToken != null && currentToken.getType() != TokenType.BRACES) { // )
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("ArgumentList",lineNumber,fileName);
+        if (hasCurrent() && currentType() != TokenType.BRACES) { // )
             parseNonEmptyArgumentList();
         }
-        parseTree.endRule();
+        exitRule("ArgumentList");
     }
 
     private void parseNonEmptyArgumentList() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("NonEmptyArgumentList",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("NonEmptyArgumentList",lineNumber,fileName);
         parseExpression();
-        while (currentToken != null && currentToken.getType() == TokenType.COMMA) {
+        while (hasCurrent() && currentType() == TokenType.COMMA) {
             match(TokenType.COMMA);
             parseExpression();
         }
-        parseTree.endRule();
+        exitRule("NonEmptyArgumentList");
     }
 
     private void parseComment() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("Comment",lineNumber,fileName);
-        if (currentToken.getType() == TokenType.COMMENT) {
-            // Single-line comment
-            if (currentToken.getValue().startsWith("/-")) {
-                match(TokenType.COMMENT);
-            }
-            // Multi-line comment
-            else if (currentToken.getValue().startsWith("/##")) {
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("Comment",lineNumber,fileName);
+        if (hasCurrent() && currentType() == TokenType.COMMENT) {
+            // Multi-line comment: the lexer gives one token per line, the last ends with ##/
+            boolean open = currentValue().startsWith("/##") && !currentValue().endsWith("##/");
+            match(TokenType.COMMENT);
+            while (open && hasCurrent() && currentType() == TokenType.COMMENT) {
+                open = !currentValue().endsWith("##/");
                 match(TokenType.COMMENT);
-                // Need to handle until ##// is found
-                while (currentToken != null && !currentToken.getValue().endsWith("##//")) {
-                    match(TokenType.COMMENT);
-                }
             }
         }
-        parseTree.endRule();
+        exitRule("Comment");
+    }
+
+    private void parseConditionExpression() {
+        parseOperators(LOGIC);
     }
 
     private void parseExpression() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("Expression",lineNumber,fileName);
-        parseTerm();
-        // Only handle + and - at expression level
-        while (currentToken != null &&
-                (currentToken.getValue().equals("+") ||
-                        currentToken.getValue().equals("-"))) {
-            match(TokenType.ARITH_OP);  // Match the operator
-            parseTerm();
-        }
-        parseTree.endRule();
-    }
-
-    private void parseTerm() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("Term",lineNumber,fileName);
-        parseFactor();
-        // Only handle * and / at term level
-        while (currentToken != null &&
-                (currentToken.getValue().equals("*") ||
-                        currentToken.getValue().equals("/"))) {
-            match(TokenType.ARITH_OP);  // Match the operator
-            parseFactor();
-        }
-        parseTree.endRule();
-    }
-
-    private void parseFactor() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("Factor",lineNumber,fileName);
-        if (currentToken != null) {
-            switch (currentToken.getType()) {
-                case IDENTIFIER:
-                case CONSTANT:
-                    match(currentToken.getType());
-                    break;
-                case BRACES:
-                    if (currentToken.getValue().equals("(")) {
-                        match(TokenType.BRACES);  // (
-                        parseExpression();
-                        match(TokenType.BRACES);  // )
-                    }
-                    break;
-                default:
-                    errors.add(new CompilerError(
-                            currentToken.getLineNumber(),
-                            currentToken.getFileName(),
-                            "Not Matched Error: Unexpected token in factor expression: '" +
-                                    currentToken.getValue() + "' (" + currentToken.getType() + ")"
-                    ));
-                    advance();
+        parseOperators(SUM);
+    }
+
+    // Level of the operator at the current token, or -1
+    private int operatorLevel() {
+        if (!hasCurrent()) {
+            return -1;
+        }
+        if (currentType() == TokenType.LOGIC_OP) {
+            return LOGIC;
+        }
+        if (currentType() == TokenType.REL_OP) {
+            return RELATION;
+        }
+        if (currentValueIs("+") || currentValueIs("-")) {
+            return SUM;
+        }
+        if (currentValueIs("*") || currentValueIs("/")) {
+            return PRODUCT;
+        }
+        return -1;
+    }
+
+    // Parses an expression starting at level top with an explicit stack of
+    // open levels instead of a call per rule, so nested parentheses cannot
+    // overflow the call stack. The rules and events are the same as those of
+    // ConditionExpression -> Condition (LOGIC_OP Condition)*, Condition ->
+    // Expression REL_OP Expression, Expression -> Term (+|- Term)*,
+    // Term -> Factor (*|/ Factor)* and Factor -> ID | CONSTANT | ( Expression ).
+    private void parseOperators(int top) {
+        int base = levelCount;
+        int level = top;
+        while (true) {
+            // Open the levels down to a Factor
+            for (; level <= FACTOR; level++) {
+                openLevel(level);
+            }
+
+            if (hasCurrent()) {
+                switch (currentType()) {
+                    case IDENTIFIER:
+                    case CONSTANT:
+                        match(currentType());
+                        break;
+                    case BRACES:
+                        if (currentValueIs("(")) {
+                            match(TokenType.BRACES);  // (
+                            levels[levelCount - 1] = PARENTHESES;
+                            level = SUM;
+                            continue;
+                        }
+                        break;
+                    default:
+                        report("Not Matched Error: Unexpected token in factor expression: '" +
+                                currentValue() + "' (" + currentType() + ")");
+                        skipToSyncToken();
+                }
+            }
+
+            // Close levels until one takes another operand
+            level = -1;
+            while (level < 0 && levelCount > base) {
+                int open = levels[levelCount - 1];
+                if (open == PARENTHESES) {
+                    match(TokenType.BRACES);  // )
+                    closeLevel(FACTOR);
+                } else if (open == RELATION) {
+                    match(TokenType.REL_OP);  // ==, !=, etc.
+                    levels[levelCount - 1] = RELATION_DONE;
+                    level = SUM;
+                } else if (open == RELATION_DONE) {
+                    closeLevel(RELATION);
+                } else if (open != FACTOR && operatorLevel() == open) {
+                    match(OPERATORS[open]);
+                    level = open + 1;
+                } else {
+                    closeLevel(open);
+                }
+            }
+            if (level < 0) {
+                return;
             }
         }
-        parseTree.endRule();
+    }
+
+    private void openLevel(int level) {
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule(LEVEL_RULES[level], lineNumber, fileName);
+        if (levelCount == levels.length) {
+            levels = Arrays.copyOf(levels, levelCount * 2);
+        }
+        levels[levelCount++] = level;
+    }
+
+    private void closeLevel(int level) {
+        levelCount--;
+        exitRule(LEVEL_RULES[level]);
     }
 
     private void parseStatements() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("Statements",lineNumber,fileName);
-        while (currentToken != null && !currentToken.getValue().equals("}")) {
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("Statements",lineNumber,fileName);
+        // A missing } ends the method at the next Division or End
+        while (hasCurrent() && !currentValueIs("}")
+                && currentType() != TokenType.CLASS && currentType() != TokenType.END_STATEMENT) {
             parseStatement();
         }
-        parseTree.endRule();
+        exitRule("Statements");
     }
 
     private void parseStatement() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("Statement",lineNumber,fileName);
-        if (currentToken != null) {
-            switch (currentToken.getType()) {
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("Statement",lineNumber,fileName);
+        if (hasCurrent()) {
+            switch (currentType()) {
                 case INTEGER:
                 case SINTEGER:
                 case CHARACTER:
@@ -568,7 +846,7 @@ public class Parser {
                 case SFLOAT:
                 case BOOLEAN:
                 case VOID:
-                    if(isAssignment()){
+                    if(Prediction.isAssignment(tokens, position)){
                         parseAssignment();
                     } else{
                         parseVarDeclaration();
@@ -578,7 +856,7 @@ public class Parser {
                     parseWhetherDoStatement();
                     break;
                 case LOOP:
-                    if (currentToken.getValue().equals("Rotatewhen")) {
+                    if (currentValueIs("Rotatewhen")) {
                         parseRotateWhenStatement();
                     } else {
                         parseContinueWhenStatement();
@@ -597,27 +875,23 @@ public class Parser {
                     parseWriteStatement();
                     break;
                 case IDENTIFIER:
-                    if (looksLikeFuncCall()) {
+                    if (Prediction.looksLikeFuncCall(tokens, position)) {
                         parseFuncCall();
                     } else {
                         parseAssignment();
                     }
                     break;
                 default:
-                    errors.add(new CompilerError(
-                            currentToken.getLineNumber(),
-                            currentToken.getFileName(),
-                            "Not Matched Error: Unexpected statement '" + currentToken.getValue() + "' (" + currentToken.getType() + ")"
-                    ));
-                    advance();
+                    report("Not Matched Error: Unexpected statement '" + currentValue() + "' (" + currentType() + ")");
+                    skipStatement();
             }
         }
-        parseTree.endRule();
+        exitRule("Statement");
     }
     private void parseWhetherDoStatement() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("WhetherDoStatement",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("WhetherDoStatement",lineNumber,fileName);
         match(TokenType.CONDITION); // "WhetherDo"
         match(TokenType.BRACES);    // "("
         parseConditionExpression();
@@ -625,50 +899,28 @@ public class Parser {
         parseBlockStatements();
 
         // Handle optional Else clause
-        if (currentToken != null && currentToken.getValue().equals("Else")) {
+        if (hasCurrent() && currentValueIs("Else")) {
             match(TokenType.CONDITION); // "Else"
             parseBlockStatements();
         }
-        parseTree.endRule();
-    }
-
-    private void parseConditionExpression() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("ConditionExpression",lineNumber,fileName);
-        parseCondition();
-        while (currentToken != null &&
-                (currentToken.getType() == TokenType.LOGIC_OP)) {
-            match(currentToken.getType()); // AND/OR
-            parseCondition();
-        }
-        parseTree.endRule();
+        exitRule("WhetherDoStatement");
     }
 
-    private void parseCondition() {int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("Condition",lineNumber,fileName);
-        parseExpression();
-        match(TokenType.REL_OP); // ==, !=, etc.
-        parseExpression();
-        parseTree.endRule();
-    }
-
-    private void parseRotateWhenStatement() {int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("RotateWhenStatement",lineNumber,fileName);
+    private void parseRotateWhenStatement() {int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("RotateWhenStatement",lineNumber,fileName);
         match(TokenType.LOOP);      // "Rotatewhen"
         match(TokenType.BRACES);    // "("
         parseConditionExpression();
         match(TokenType.BRACES);    // ")"
         parseBlockStatements();
-        parseTree.endRule();
+        exitRule("RotateWhenStatement");
     }
 
     private void parseContinueWhenStatement() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("ContinueWhenStatement",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("ContinueWhenStatement",lineNumber,fileName);
         match(TokenType.LOOP);      // "Continuewhen"
         match(TokenType.BRACES);    // "("
         parseExpression();          // Initialization
@@ -678,105 +930,78 @@ public class Parser {
         parseExpression();          // Increment
         match(TokenType.BRACES);    // ")"
         parseBlockStatements();
-        parseTree.endRule();
+        exitRule("ContinueWhenStatement");
     }
 
     private void parseReplyWithStatement() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("ReplyWithStatement",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("ReplyWithStatement",lineNumber,fileName);
         match(TokenType.RETURN);    // "Replywith"
-        if (currentToken != null && currentToken.getType() == TokenType.IDENTIFIER) {
+        if (hasCurrent() && currentType() == TokenType.IDENTIFIER) {
             match(TokenType.IDENTIFIER);
         } else {
             parseExpression();
         }
         match(TokenType.SEMICOLON);
-        parseTree.endRule();
+        exitRule("ReplyWithStatement");
     }
 
     private void parseTerminateThisStatement() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("TerminateThisStatement",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("TerminateThisStatement",lineNumber,fileName);
         match(TokenType.BREAK);     // "terminatethis"
         match(TokenType.SEMICOLON);
-        parseTree.endRule();
+        exitRule("TerminateThisStatement");
     }
 
     private void parseAssignment() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("Assignment",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("Assignment",lineNumber,fileName);
         parseAssignmentVarDeclaration();
         match(TokenType.ASSIGN_OP); // "="
         parseExpression();
         match(TokenType.SEMICOLON);
-        parseTree.endRule();
+        exitRule("Assignment");
     }
 
     private void parseBlockStatements() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("BlockStatements",lineNumber,fileName);
+        if (reuse("BlockStatements")) {
+            return;
+        }
+        int errorCount = errors.size();
+        boolean wasRecovering = recovering;
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("BlockStatements",lineNumber,fileName);
         match(TokenType.BRACES);    // "{"
         parseStatements();
         match(TokenType.BRACES);    // "}"
-        parseTree.endRule();
-    }
-    private boolean looksLikeFuncCall() {
-        // Check if identifier is followed by '('
-        int pos = getCurrentPosition();
-        try {
-            match(TokenType.IDENTIFIER);
-            return currentToken != null &&
-                    currentToken.getType() == TokenType.BRACES &&
-                    currentToken.getValue().equals("(");
-        } finally {
-            resetToPosition(pos);
-        }
+        markReusable(errorCount, wasRecovering);
+        exitRule("BlockStatements");
     }
     private void parseReadStatement() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("ReadStatement",lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("ReadStatement",lineNumber,fileName);
         match(TokenType.READ);      // "read"
         match(TokenType.BRACES);    // "("
         match(TokenType.IDENTIFIER); // Variable to read into
         match(TokenType.BRACES);    // ")"
         match(TokenType.SEMICOLON); // ";"
-        parseTree.endRule();
+        exitRule("ReadStatement");
     }
     private void parseWriteStatement() {
-        int lineNumber = currentToken != null ? currentToken.getLineNumber() : -1;
-        String fileName = currentToken != null ? currentToken.getFileName() : null;
-        parseTree.startRule("WriteStatement", lineNumber,fileName);
+        int lineNumber = hasCurrent() ? currentLine() : -1;
+        String fileName = hasCurrent() ? currentFile() : null;
+        enterRule("WriteStatement", lineNumber,fileName);
         match(TokenType.WRITE);     // "write"
         match(TokenType.BRACES);    // "("
         parseExpression();          // Expression to output
         match(TokenType.BRACES);    // ")"
         match(TokenType.SEMICOLON); // ";"
-        parseTree.endRule();
-    }
-    private boolean isValidType(TokenType type) {
-        return type == TokenType.INTEGER ||
-                type == TokenType.SINTEGER ||
-                type == TokenType.CHARACTER ||
-                type == TokenType.STRING ||
-                type == TokenType.FLOAT ||
-                type == TokenType.SFLOAT ||
-                type == TokenType.BOOLEAN ||
-                type == TokenType.VOID;
-    }
-    private boolean isFunctionCall() {
-        int pos = getCurrentPosition();
-        try {
-            match(TokenType.IDENTIFIER);
-            return currentToken != null &&
-                    currentToken.getType() == TokenType.BRACES &&
-                    currentToken.getValue().equals("(");
-        } finally {
-            resetToPosition(pos);
-        }
+        exitRule("WriteStatement");
     }
 }
\ No newline at end of file
@@ -0,0 +1,252 @@
+package parser;
+
+import lexer.LexedDocument;
+import lexer.Lexer;
+import lexer.TokenBuffer;
+
+import com.sun.management.ThreadMXBean;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+// Times the recursive Parser, sequential, on the common fork-join pool, into
+// an ArenaTree, into a red/green tree and validating only, against the
+// table-driven TableParser on the same token buffer, which ParserParityTest
+// checks all build the same tree. It compares what parse and validate
+// allocate and what a SharedTree keeps against a ParseTree. Then it reparses
+// after one-line edits, also replacing the edited Division in a red/green
+// snapshot, reads the tree back from a TreeFile and parses a deeply nested
+// method and expression, whose tree text is then streamed out. Run with:
+// java -cp <classes> parser.ParserBenchmark
+class ParserBenchmark {
+    private static final int CLASSES = 2_000;
+    private static final int NESTING = 20_000;
+    private static final int ROUNDS = 10;
+    private static final String[] TYPES = {"Ire", "Sire", "Clo", "SetOfClo", "FBU", "SFBU", "Logical"};
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(1);
+        StringBuilder source = new StringBuilder("Program\n");
+        for (int i = 0; i < CLASSES; i++) {
+            source.append("Division C").append(i).append(" InferedFrom Base {\n");
+            source.append(TYPES[random.nextInt(TYPES.length)]).append(" count ;\n");
+            source.append("Ire total = count * 2 + ( count - 1 ) / 3 ;\n");
+            source.append(TYPES[random.nextInt(TYPES.length)]).append(" run ( ) {\n");
+            source.append("Ire i = 0 ;\n");
+            source.append("Rotatewhen ( i < 10 && total == 3 ) {\n");
+            source.append("i = i + 1 ;\n");
+            source.append("log ( i * total ) ;\n");
+            source.append("}\n");
+            source.append("Continuewhen ( i ; i - 5 ; i + 1 ) {\n");
+            source.append("WhetherDoElse ( i == 2 ) {\nterminatethis ;\n}\n");
+            source.append("}\n");
+            source.append("Replywith total ;\n");
+            source.append("}\n");
+            source.append("}\n");
+        }
+        source.append("End\n");
+        TokenBuffer tokens = new Lexer().tokenizeToBuffer(source.toString(), "bench.txt");
+
+        System.out.printf("%d tokens%n", tokens.size());
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long recursiveTime = time(() -> {
+                return new Parser(tokens).parse().getNodes().size();
+            });
+            long parallelTime = time(() -> {
+                return new Parser(tokens).parseParallel(ForkJoinPool.commonPool()).getNodes().size();
+            });
+            long arenaTime = time(() -> {
+                return new Parser(tokens).parseArena().size();
+            });
+            long tableTime = time(() -> {
+                return new TableParser(tokens).parse().getNodes().size();
+            });
+            long validateTime = time(() -> {
+                return new Parser(tokens).validate().size();
+            });
+            long greenTime = time(() -> {
+                return new Parser(tokens).parseGreen().getChildCount();
+            });
+            System.out.printf("round %d: recursive %.2f ms, parallel %.2f ms (%d threads), arena %.2f ms, table %.2f ms, validate %.2f ms, green %.2f ms%n",
+                    round + 1, recursiveTime / 1e6, parallelTime / 1e6,
+                    ForkJoinPool.commonPool().getParallelism(), arenaTime / 1e6, tableTime / 1e6, validateTime / 1e6,
+                    greenTime / 1e6);
+        }
+
+        // Heap allocated by this thread, which parse and validate run on
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        new Parser(tokens).parse();
+        long parseBytes = threads.getCurrentThreadAllocatedBytes() - before;
+        before = threads.getCurrentThreadAllocatedBytes();
+        new Parser(tokens).validate();
+        long validateBytes = threads.getCurrentThreadAllocatedBytes() - before;
+        System.out.printf("allocated: parse %.1f bytes a token, validate %.1f bytes a token%n",
+                (double) parseBytes / tokens.size(), (double) validateBytes / tokens.size());
+
+        // The Divisions differ only in their name and two types, so most of
+        // each is stored once in a SharedTree
+        long sharedTime = time(() -> {
+            return new Parser(tokens).parseShared().size();
+        });
+        long treeHeap = retained(() -> new Parser(tokens).parse());
+        long sharedHeap = retained(() -> new Parser(tokens).parseShared());
+        System.out.printf("shared: %d unique nodes of %d, parsed in %.2f ms, %d KB kept against %d KB%n",
+                new Parser(tokens).parseShared().size(), new Parser(tokens).parse().getNodes().size(),
+                sharedTime / 1e6, sharedHeap / 1024, treeHeap / 1024);
+
+        // Each round changes the count ; line of the middle Division, 17 lines a Division
+        LexedDocument document = LexedDocument.lex(new Lexer(), source.toString(), "bench.txt");
+        ParseTree tree = new Parser(document.getTokens()).parse();
+        RedNode snapshot = new Parser(document.getTokens()).parseGreen();
+        int line = 3 + CLASSES / 2 * 17;
+        for (int round = 0; round < ROUNDS; round++) {
+            document.replaceLines(line, 1, TYPES[round % TYPES.length] + " count ;");
+            ParseTree previous = tree;
+            ParseTree[] result = new ParseTree[1];
+            long reparseTime = time(() -> {
+                result[0] = new Parser(document.getTokens()).reparse(previous, document);
+                return result[0].getRoot().getChildren().size();
+            });
+            tree = result[0];
+            long fullTime = time(() -> {
+                return new Parser(document.getTokens()).parse().getRoot().getChildren().size();
+            });
+            String expectedText = new Parser(document.getTokens()).parse().toString();
+            if (!tree.toString().equals(expectedText)) {
+                throw new AssertionError("Reparsing gave a different tree");
+            }
+
+            // The red/green version takes the reparsed Division and rebuilds
+            // only the path from it to the root
+            ParseTreeNode division = null;
+            for (ParseTreeNode node : tree.getRules("ClassDeclaration")) {
+                if (node.getFirstToken() <= document.getEditStart() && document.getEditStart() < node.getEndToken()) {
+                    division = node;
+                }
+            }
+            RedNode current = snapshot;
+            ParseTreeNode changed = division;
+            RedNode[] next = new RedNode[1];
+            long replaceTime = time(() -> {
+                next[0] = current.findRule("ClassDeclaration", document.getEditStart()).replace(GreenNode.from(changed), 0);
+                return next[0].getChildCount();
+            });
+            snapshot = next[0];
+            if (!snapshot.toString().equals(expectedText)) {
+                throw new AssertionError("Replacing the Division gave a different tree");
+            }
+            System.out.printf("edit %d: reparse %.2f ms, full parse %.2f ms, green replace %.2f ms%n",
+                    round + 1, reparseTime / 1e6, fullTime / 1e6, replaceTime / 1e6);
+        }
+
+        // The tree cached in a TreeFile: opening it and reaching one Division
+        // decode only that path, the full walk decodes every node
+        Path cached = Files.createTempFile("bench", ".tree");
+        try {
+            TreeFile.write(tree, cached);
+            long openTime = time(() -> {
+                try {
+                    List<ParseTreeNode> divisions = TreeFile.read(cached).getChildren().get(0).getChildren();
+                    return divisions.get(divisions.size() - 2).getChildren().size();  // Before End
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            long loadTime = time(() -> {
+                try {
+                    return TreeFile.read(cached).getMatchedRules().size();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            System.out.printf("tree file: %d bytes, %d nodes; one Division in %.2f ms, whole tree in %.2f ms%n",
+                    Files.size(cached), tree.getNodes().size(), openTime / 1e6, loadTime / 1e6);
+        } finally {
+            Files.delete(cached);
+        }
+
+        StringBuilder nested = new StringBuilder("Program Division Deep { Ire run ( ) {\n");
+        for (int i = 0; i < NESTING; i++) {
+            nested.append("Rotatewhen ( i < 1 ) {\n");
+        }
+        for (int i = 0; i < NESTING; i++) {
+            nested.append("}\n");
+        }
+        nested.append("} } End\n");
+        TokenBuffer deep = new Lexer().tokenizeToBuffer(nested.toString(), "deep.txt");
+        try {
+            new Parser(deep).parse();
+            System.out.printf("nesting %d: recursive parser finished%n", NESTING);
+        } catch (StackOverflowError e) {
+            System.out.printf("nesting %d: recursive parser overflowed the stack%n", NESTING);
+        }
+        TableParser parser = new TableParser(deep);
+        parser.parse();
+        System.out.printf("nesting %d: table parser finished with %d errors%n", NESTING, parser.getErrors().size());
+
+        // Expressions are parsed without recursion in both parsers
+        StringBuilder parenthesized = new StringBuilder("Program Division Deep { Ire x = ");
+        for (int i = 0; i < NESTING; i++) {
+            parenthesized.append("( 1 + ");
+        }
+        parenthesized.append("1");
+        for (int i = 0; i < NESTING; i++) {
+            parenthesized.append(" )");
+        }
+        parenthesized.append(" ; } End\n");
+        TokenBuffer expression = new Lexer().tokenizeToBuffer(parenthesized.toString(), "expression.txt");
+        Parser recursiveExpression = new Parser(expression);
+        ParseTree[] expressionTree = new ParseTree[1];
+        long expressionTime = time(() -> {
+            expressionTree[0] = recursiveExpression.parse();
+            return expressionTree[0].getRoot().getChildren().size();
+        });
+        System.out.printf("parentheses %d: recursive parser finished in %.2f ms with %d errors%n",
+                NESTING, expressionTime / 1e6, recursiveExpression.getErrors().size());
+
+        // The old recursive toString overflowed on a tree this deep; streamed, the
+        // text, mostly indentation, is never held in memory
+        long writeTime = time(() -> {
+            try {
+                new TreeWriter(Writer.nullWriter(), true).write(expressionTree[0]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return 0;
+        });
+        System.out.printf("parentheses %d: tree text streamed in %.2f ms%n", NESTING, writeTime / 1e6);
+    }
+
+    // Heap still used by what build returns, measured around full collections
+    private static long retained(Supplier<Object> build) {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        Object kept = build.get();
+        System.gc();
+        System.gc();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        return kept == null ? 0 : after - before;
+    }
+
+    private static long time(IntSupplier work) {
+        System.gc();  // Trees of the previous round should not be collected on this one's clock
+        long start = System.nanoTime();
+        if (work.getAsInt() < 0) {
+            throw new AssertionError();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,85 @@
+package parser;
+
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+// The lookahead rules that pick between alternatives sharing a first token,
+// used by both Parser and Grammar so the two engines always predict alike,
+// and the tokens both parsers recover at after a syntax error. position is
+// the index of the token the alternative would start at. Unlike matching, a
+// lookahead never reports to the listeners or records an error, and none
+// looks further than 4 tokens ahead.
+final class Prediction {
+    private Prediction() {
+    }
+
+    static boolean peekIs(TokenCursor tokens, int index, TokenType type) {
+        return tokens.hasToken(index) && tokens.getType(index) == type;
+    }
+
+    static boolean peekIs(TokenCursor tokens, int index, TokenType type, String text) {
+        return peekIs(tokens, index, type) && tokens.valueEquals(index, text);
+    }
+
+    // Type ID ;  where Type is any single token
+    static boolean isVarDecl(TokenCursor tokens, int position) {
+        return peekIs(tokens, position + 1, TokenType.IDENTIFIER) && peekIs(tokens, position + 2, TokenType.SEMICOLON, ";");
+    }
+
+    // Type ID ( ) {  where Type and the parentheses are any single tokens
+    static boolean isLikelyMethodDeclaration(TokenCursor tokens, int position) {
+        return peekIs(tokens, position + 1, TokenType.IDENTIFIER) && peekIs(tokens, position + 4, TokenType.BRACES, "{");
+    }
+
+    // Type ID =  or  ID =  where Type is any single token
+    static boolean isAssignment(TokenCursor tokens, int position) {
+        int assignAt = peekIs(tokens, position + 1, TokenType.IDENTIFIER) ? 2 : 1;
+        return peekIs(tokens, position + assignAt, TokenType.ASSIGN_OP);
+    }
+
+    // ID (
+    static boolean looksLikeFuncCall(TokenCursor tokens, int position) {
+        return peekIs(tokens, position, TokenType.IDENTIFIER) && peekIs(tokens, position + 1, TokenType.BRACES, "(");
+    }
+
+    static boolean isValidType(TokenType type) {
+        return type == TokenType.INTEGER ||
+                type == TokenType.SINTEGER ||
+                type == TokenType.CHARACTER ||
+                type == TokenType.STRING ||
+                type == TokenType.FLOAT ||
+                type == TokenType.SFLOAT ||
+                type == TokenType.BOOLEAN ||
+                type == TokenType.VOID;
+    }
+
+    // ; ends a statement or declaration, } a block or Division, and Division
+    // and End start the next class or close the program
+    static boolean atSyncToken(TokenCursor tokens, int position) {
+        if (!tokens.hasToken(position)) {
+            return false;
+        }
+        switch (tokens.getType(position)) {
+            case SEMICOLON:
+            case CLASS:
+            case END_STATEMENT:
+                return true;
+            case BRACES:
+                return tokens.valueEquals(position, "}");
+            default:
+                return false;
+        }
+    }
+
+    // Where skipping a broken class item stops. Identifiers are left out:
+    // too many broken items contain one.
+    static boolean startsClassItem(TokenType type) {
+        return isValidType(type) || type == TokenType.INCLUSION || type == TokenType.COMMENT
+                || type == TokenType.START_STATEMENT;
+    }
+
+    static boolean startsStatement(TokenType type) {
+        return isValidType(type) || type == TokenType.CONDITION || type == TokenType.LOOP || type == TokenType.RETURN
+                || type == TokenType.BREAK || type == TokenType.READ || type == TokenType.WRITE;
+    }
+}
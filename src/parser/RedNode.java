@@ -0,0 +1,200 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// A GreenNode at its place in one version of the tree: parent, first token,
+// line and file, worked out on the way down from the root. Red nodes are made
+// when first asked for and never change either, so a tree can be read from
+// any number of threads without locking and kept as a snapshot; replace()
+// gives the next version and leaves this one as it is.
+public final class RedNode {
+    private final GreenNode green;
+    private final RedNode parent;
+    private final int index;  // Among the parent's children
+    private final int start;
+    private final int lineNumber;
+    private final String fileName;
+    private volatile RedNode[] children;  // Made once; a race only makes equal copies
+
+    RedNode(GreenNode green, RedNode parent, int index, int start, int lineNumber, String fileName) {
+        this.green = green;
+        this.parent = parent;
+        this.index = index;
+        this.start = start;
+        this.lineNumber = lineNumber;
+        this.fileName = fileName;
+    }
+
+    public GreenNode getGreen() {
+        return green;
+    }
+
+    public RedNode getParent() {
+        return parent;
+    }
+
+    public String getName() {
+        return green.getName();
+    }
+
+    public String getValue() {
+        return green.getValue();
+    }
+
+    public int getSymbol() {
+        return green.getSymbol();
+    }
+
+    public boolean isRuleNode() {
+        return green.isRuleNode();
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    // Token indexes [getFirstToken(), getEndToken()) the node was parsed from
+    public int getFirstToken() {
+        return start;
+    }
+
+    public int getEndToken() {
+        return start + green.getWidth();
+    }
+
+    public int getChildCount() {
+        return green.getChildCount();
+    }
+
+    public RedNode getChild(int i) {
+        return children()[i];
+    }
+
+    public List<RedNode> getChildren() {
+        return Collections.unmodifiableList(Arrays.asList(children()));
+    }
+
+    private RedNode[] children() {
+        RedNode[] result = children;
+        if (result == null) {
+            result = new RedNode[green.getChildCount()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = new RedNode(green.getChild(i), this, i, start + green.getChildOffset(i),
+                        green.getChildLine(i, lineNumber, fileName), green.getChildFile(i));
+            }
+            children = result;
+        }
+        return result;
+    }
+
+    // The innermost node named rule whose tokens contain index, or null
+    public RedNode findRule(String rule, int index) {
+        RedNode found = null;
+        RedNode node = this;
+        while (node != null && index >= node.start && index < node.getEndToken()) {
+            if (node.isRuleNode() && node.getName().equals(rule)) {
+                found = node;
+            }
+            node = node.childAt(index);
+        }
+        return found;
+    }
+
+    // The child whose tokens contain index, or null
+    private RedNode childAt(int index) {
+        int low = 0;
+        int high = green.getChildCount() - 1;
+        while (low <= high) {  // Last child starting at or before index
+            int middle = (low + high) >>> 1;
+            if (start + green.getChildOffset(middle) <= index) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (high < 0) {
+            return null;
+        }
+        RedNode child = getChild(high);
+        return index < child.getEndToken() ? child : null;
+    }
+
+    // The root of a new version of the tree in which this node is replaced,
+    // at the same first token and line. Only the nodes from here up to the
+    // root are made again; the rest is shared with this version. Nodes after
+    // this one move by the change in width, and by lineShift lines where they
+    // are in this node's file.
+    public RedNode replace(GreenNode replacement, int lineShift) {
+        int widthShift = replacement.getWidth() - green.getWidth();
+        GreenNode node = replacement;
+        RedNode current = this;
+        while (current.parent != null) {
+            RedNode up = current.parent;
+            node = up.green.withChild(current.index, node, widthShift, lineShift, fileName, up.lineNumber, up.fileName);
+            current = up;
+        }
+        return new RedNode(node, null, 0, current.start, current.lineNumber, current.fileName);
+    }
+
+    public String toString() {
+        return TreeWriter.toString(this, false);
+    }
+
+    public String toStringWithFileInfo() {
+        return TreeWriter.toString(this, true);
+    }
+
+    // ParseTreeNode objects with the same names, values, positions and token
+    // ranges, for code written against ParseTree. Below the ROOT this node
+    // becomes the only top-level node.
+    public ParseTree toParseTree() {
+        ParseTree tree = new ParseTree();
+        if (!isRuleNode()) {
+            tree.addLeaf(getName(), getValue(), getSymbol(), lineNumber, fileName, start);
+            return tree;
+        }
+        if (parent != null) {
+            tree.enterRule(getName(), lineNumber, fileName);
+            tree.startsAt(start);
+        }
+        RedNode[] stack = {this};
+        int[] next = new int[1];
+        int top = 0;
+        while (top >= 0) {
+            RedNode node = stack[top];
+            if (next[top] == node.getChildCount()) {
+                if (top > 0) {
+                    tree.endsAt(node.getEndToken());
+                    tree.exitRule(node.getName());
+                }
+                top--;
+                continue;
+            }
+
+            RedNode child = node.getChild(next[top]++);
+            if (!child.isRuleNode()) {
+                tree.addLeaf(child.getName(), child.getValue(), child.getSymbol(), child.lineNumber, child.fileName, child.start);
+                continue;
+            }
+            tree.enterRule(child.getName(), child.lineNumber, child.fileName);
+            tree.startsAt(child.start);
+            if (++top == stack.length) {
+                stack = Arrays.copyOf(stack, top * 2);
+                next = Arrays.copyOf(next, top * 2);
+            }
+            stack[top] = child;
+            next[top] = 0;
+        }
+        if (parent != null) {
+            tree.endsAt(getEndToken());
+            tree.exitRule(getName());
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,329 @@
+package parser;
+
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Parse tree in which structurally identical subtrees are stored once, e.g.
+// an included run of tokens in every Division that uses it, or repeated
+// statements of generated code. A node is an int handle to a unique subtree:
+// its kind, a leaf's value and its children with their start relative to its
+// own. Nothing about where a subtree occurs is kept in it: the start token of
+// an occurrence is found on the way down from the root, which starts at token
+// 0, and lines and files are read from the tokens there, as in ArenaTree.
+public class SharedTree implements TreeBuilder {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final TokenCursor tokens;
+    private final List<String> ruleNames = new ArrayList<>();   // Kind TYPES.length + i
+    private final Map<String, Integer> ruleKinds = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+    private final Map<String, Integer> valueIds = new HashMap<>();
+
+    // Unique nodes
+    private int[] kinds = new int[256];       // TokenType ordinal of a leaf, or rule kind
+    private int[] valueIndexes = new int[256];  // Value of a leaf; for a rule 1 if it has no line, else 0
+    private int[] widths = new int[256];      // Tokens covered, skipped ones included
+    private int[] firstChildren = new int[256];  // Into childNodes and childOffsets
+    private int[] childCounts = new int[256];
+    private int[] hashes = new int[256];
+    private int size;
+    private int[] childNodes = new int[1024];
+    private int[] childOffsets = new int[1024];
+    private int childrenSize;
+    private int[] table = new int[512];       // Open addressing over the nodes by hash, -1 for empty
+    private int root = -1;
+
+    // Open rules while building; their finished children wait on pending
+    // with their absolute start token
+    private int[] openKinds = new int[64];
+    private int[] openStarts = new int[64];
+    private int[] openEnds = new int[64];
+    private int[] openNoLine = new int[64];
+    private int[] openPending = new int[64];  // First pending child of the rule
+    private int depth;
+    private int[] pendingNodes = new int[256];
+    private int[] pendingStarts = new int[256];
+    private int pendingSize;
+
+    SharedTree(TokenCursor tokens) {
+        this.tokens = tokens;
+        Arrays.fill(table, -1);
+        open(ruleKind("ROOT"), true);
+        openStarts[0] = 0;
+    }
+
+    @Override
+    public void enterRule(String rule, int lineNumber, String fileName) {
+        // A rule entered without a current token has no line, as in ArenaTree
+        open(ruleKind(rule), lineNumber < 0);
+    }
+
+    @Override
+    public void exitRule(String rule) {
+        if (depth > 1) {
+            close();
+        }
+    }
+
+    @Override
+    public void matched(TokenType type, TokenCursor tokens, int index) {
+        String value = tokens.getValue(index);
+        Integer valueIndex = valueIds.get(value);
+        if (valueIndex == null) {
+            valueIndex = values.size();
+            values.add(value);
+            valueIds.put(value, valueIndex);
+        }
+        addPending(intern(type.ordinal(), valueIndex, 1, 0, 0), index);
+    }
+
+    @Override
+    public void startsAt(int index) {
+        openStarts[depth - 1] = index;
+    }
+
+    @Override
+    public void endsAt(int index) {
+        openEnds[depth - 1] = index;
+    }
+
+    private void open(int kind, boolean noLine) {
+        if (depth == openKinds.length) {
+            int capacity = depth * 2;
+            openKinds = Arrays.copyOf(openKinds, capacity);
+            openStarts = Arrays.copyOf(openStarts, capacity);
+            openEnds = Arrays.copyOf(openEnds, capacity);
+            openNoLine = Arrays.copyOf(openNoLine, capacity);
+            openPending = Arrays.copyOf(openPending, capacity);
+        }
+        openKinds[depth] = kind;
+        openNoLine[depth] = noLine ? 1 : 0;
+        openPending[depth] = pendingSize;
+        depth++;
+    }
+
+    // Turns the innermost open rule into a node, which becomes a pending child
+    // of the rule around it
+    private void close() {
+        depth--;
+        int start = openStarts[depth];
+        int from = openPending[depth];
+        for (int i = from; i < pendingSize; i++) {
+            pendingStarts[i] -= start;
+        }
+        int node = intern(openKinds[depth], openNoLine[depth], openEnds[depth] - start, from, pendingSize - from);
+        pendingSize = from;
+        addPending(node, start);
+    }
+
+    private void addPending(int node, int start) {
+        if (pendingSize == pendingNodes.length) {
+            pendingNodes = Arrays.copyOf(pendingNodes, pendingSize * 2);
+            pendingStarts = Arrays.copyOf(pendingStarts, pendingSize * 2);
+        }
+        pendingNodes[pendingSize] = node;
+        pendingStarts[pendingSize] = start;
+        pendingSize++;
+    }
+
+    // Returns the node with these fields and the pending children
+    // [from, from + count), adding it if there is none yet
+    private int intern(int kind, int valueIndex, int width, int from, int count) {
+        int hash = kind * 31 + valueIndex;
+        hash = hash * 31 + width;
+        for (int i = from; i < from + count; i++) {
+            hash = (hash * 31 + pendingNodes[i]) * 31 + pendingStarts[i];
+        }
+
+        int mask = table.length - 1;
+        int slot = (hash ^ hash >>> 16) & mask;
+        for (int node = table[slot]; node >= 0; node = table[slot]) {
+            if (hashes[node] == hash && kinds[node] == kind && valueIndexes[node] == valueIndex
+                    && widths[node] == width && childCounts[node] == count
+                    && Arrays.equals(childNodes, firstChildren[node], firstChildren[node] + count, pendingNodes, from, from + count)
+                    && Arrays.equals(childOffsets, firstChildren[node], firstChildren[node] + count, pendingStarts, from, from + count)) {
+                return node;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            valueIndexes = Arrays.copyOf(valueIndexes, capacity);
+            widths = Arrays.copyOf(widths, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        if (childrenSize + count > childNodes.length) {
+            int capacity = Math.max(childNodes.length * 2, childrenSize + count);
+            childNodes = Arrays.copyOf(childNodes, capacity);
+            childOffsets = Arrays.copyOf(childOffsets, capacity);
+        }
+        int node = size++;
+        kinds[node] = kind;
+        valueIndexes[node] = valueIndex;
+        widths[node] = width;
+        firstChildren[node] = childrenSize;
+        childCounts[node] = count;
+        hashes[node] = hash;
+        System.arraycopy(pendingNodes, from, childNodes, childrenSize, count);
+        System.arraycopy(pendingStarts, from, childOffsets, childrenSize, count);
+        childrenSize += count;
+
+        table[slot] = node;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return node;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for (int node = 0; node < size; node++) {
+            int slot = (hashes[node] ^ hashes[node] >>> 16) & mask;
+            while (table[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = node;
+        }
+    }
+
+    private int ruleKind(String rule) {
+        Integer kind = ruleKinds.get(rule);
+        if (kind == null) {
+            kind = TYPES.length + ruleNames.size();
+            ruleNames.add(rule);
+            ruleKinds.put(rule, kind);
+        }
+        return kind;
+    }
+
+    // Closes the ROOT once the parse is done and drops what only building needed
+    void finish() {
+        while (depth > 1) {
+            close();
+        }
+        openEnds[0] = pendingSize == 0 ? 0 : pendingStarts[pendingSize - 1] + widths[pendingNodes[pendingSize - 1]];
+        close();
+        root = pendingNodes[0];
+        pendingSize = 0;
+        table = null;
+        hashes = null;
+        kinds = Arrays.copyOf(kinds, size);
+        valueIndexes = Arrays.copyOf(valueIndexes, size);
+        widths = Arrays.copyOf(widths, size);
+        firstChildren = Arrays.copyOf(firstChildren, size);
+        childCounts = Arrays.copyOf(childCounts, size);
+        childNodes = Arrays.copyOf(childNodes, childrenSize);
+        childOffsets = Arrays.copyOf(childOffsets, childrenSize);
+    }
+
+    // Unique nodes stored
+    public int size() {
+        return size;
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    public int getChildCount(int node) {
+        return childCounts[node];
+    }
+
+    public int getChild(int node, int i) {
+        return childNodes[firstChildren[node] + i];
+    }
+
+    // Start token of child i of the occurrence of node starting at start
+    public int getChildStart(int node, int start, int i) {
+        return start + childOffsets[firstChildren[node] + i];
+    }
+
+    public int getWidth(int node) {
+        return widths[node];
+    }
+
+    public boolean isRuleNode(int node) {
+        return kinds[node] >= TYPES.length;
+    }
+
+    // The matched token type of a leaf, null for a rule
+    public TokenType getTokenType(int node) {
+        return isRuleNode(node) ? null : TYPES[kinds[node]];
+    }
+
+    // Rule name, or the token type description of a leaf, as in ParseTreeNode
+    public String getName(int node) {
+        int kind = kinds[node];
+        return kind >= TYPES.length ? ruleNames.get(kind - TYPES.length) : TYPES[kind].getDescription();
+    }
+
+    // Token text of a leaf, null for a rule
+    public String getValue(int node) {
+        return isRuleNode(node) ? null : values.get(valueIndexes[node]);
+    }
+
+    public int getLineNumber(int node, int start) {
+        return hasLine(node, start) ? tokens.getLineNumber(start) : -1;
+    }
+
+    public String getFileName(int node, int start) {
+        return hasLine(node, start) ? tokens.getFileName(start) : null;
+    }
+
+    private boolean hasLine(int node, int start) {
+        return !(isRuleNode(node) && valueIndexes[node] == 1) && tokens.hasToken(start);
+    }
+
+    // Expands every occurrence into ParseTreeNode objects, with token ranges
+    public ParseTree toParseTree() {
+        ParseTree tree = new ParseTree();
+        int[] nodes = new int[64];
+        int[] starts = new int[64];
+        int[] next = new int[64];  // Next child to visit
+        nodes[0] = root;
+        int top = 0;
+        while (top >= 0) {
+            int node = nodes[top];
+            int start = starts[top];
+            if (next[top] == getChildCount(node)) {
+                if (top > 0) {
+                    tree.endsAt(start + widths[node]);
+                    tree.exitRule(getName(node));
+                }
+                top--;
+                continue;
+            }
+
+            int child = getChild(node, next[top]);
+            int childStart = getChildStart(node, start, next[top]);
+            next[top]++;
+            if (!isRuleNode(child)) {
+                tree.matched(getTokenType(child), tokens, childStart);
+                continue;
+            }
+            tree.enterRule(getName(child), getLineNumber(child, childStart), getFileName(child, childStart));
+            tree.startsAt(childStart);
+            if (++top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                starts = Arrays.copyOf(starts, top * 2);
+                next = Arrays.copyOf(next, top * 2);
+            }
+            nodes[top] = child;
+            starts[top] = childStart;
+            next[top] = 0;
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,136 @@
+package parser;
+
+import lexer.Token;
+import lexer.TokenBuffer;
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+// Table-driven counterpart of Parser. Predicts from the LL(1) table of
+// Grammar.LANGUAGE and keeps the pending symbols on an explicit stack, so
+// nesting depth is only limited by memory and there is no call per rule.
+// Input the recursive Parser accepts without errors gives the same tree and
+// listener events. Matching and error recovery are Parser's, from
+// TokenMatcher, though the trees built around an error may differ.
+public class TableParser extends TokenMatcher {
+    private static final Grammar GRAMMAR = Grammar.LANGUAGE;
+
+    private ParseTree parseTree;
+    private int[] stack = new int[64];
+    private int depth;
+
+    public TableParser(List<Token> tokens) {
+        this(new TokenWindow(tokens));
+    }
+
+    public TableParser(Iterator<Token> tokens) {
+        this(new TokenWindow(tokens));
+    }
+
+    public TableParser(TokenBuffer tokens) {
+        this((TokenCursor) tokens);
+    }
+
+    private TableParser(TokenCursor tokens) {
+        this(tokens, new ParseTree());
+    }
+
+    private TableParser(TokenCursor tokens, ParseTree parseTree) {
+        super(tokens, parseTree);
+        this.parseTree = parseTree;
+    }
+
+    public ParseTree parse() {
+        int terminals = GRAMMAR.terminalCount();
+        push(GRAMMAR.startSymbol());
+        while (depth > 0) {
+            int symbol = stack[--depth];
+            if (symbol <= Grammar.END_RULE) {
+                String rule = GRAMMAR.nodeName(Grammar.END_RULE - symbol);
+                parseTree.endsAt(position);
+                for (ParseListener listener : listeners) {
+                    listener.exitRule(rule);
+                }
+            } else if (aborted) {
+                continue;  // Only close the open rules
+            } else if (symbol == Grammar.SKIP) {
+                advance();
+            } else if (symbol < terminals) {
+                match(GRAMMAR.tokenType(symbol));
+            } else {
+                expand(symbol - terminals);
+            }
+        }
+        return parseTree;
+    }
+
+    // Replaces a nonterminal on the stack by the production the table predicts
+    private void expand(int nonterminal) {
+        if (GRAMMAR.createsNode(nonterminal)) {
+            int lineNumber = hasCurrent() ? currentLine() : -1;
+            String fileName = hasCurrent() ? currentFile() : null;
+            String rule = GRAMMAR.nodeName(nonterminal);
+            for (ParseListener listener : listeners) {
+                listener.enterRule(rule, lineNumber, fileName);
+            }
+            parseTree.startsAt(position);
+            push(Grammar.END_RULE - nonterminal);
+        }
+
+        int production = GRAMMAR.predict(nonterminal, tokens, position);
+        if (production == Grammar.NONE) {
+            unexpected(nonterminal);
+            return;
+        }
+        int[] body = GRAMMAR.body(production);
+        for (int i = body.length - 1; i >= 0; i--) {
+            push(body[i]);
+        }
+    }
+
+    private void push(int symbol) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = symbol;
+    }
+
+    // No production fits the current token: report it and skip tokens the
+    // way the matching Parser method does. The nonterminal is then dropped.
+    private void unexpected(int nonterminal) {
+        if (!hasCurrent()) {
+            report("Not Matched Error: Unexpected end of input in " + GRAMMAR.nodeName(nonterminal));
+            return;
+        }
+        String found = "'" + currentValue() + "' (" + currentType() + ")";
+        switch (GRAMMAR.nodeName(nonterminal)) {
+            case "Type":
+                report("Not Matched Error: Expected valid type but found " + found);
+                if (!atSyncToken()) {
+                    advance();
+                }
+                break;
+            case "ClassItem":
+                report(currentType() == TokenType.IDENTIFIER ?
+                        "Not Matched Error: '" + currentValue() + "' is not a valid Type" :
+                        "Not Matched Error: '" + currentValue() + "' is an unexpected token in class implementation");
+                skipClassItem();
+                break;
+            case "Statement":
+                report("Not Matched Error: Unexpected statement " + found);
+                skipStatement();
+                break;
+            case "Factor":
+                report("Not Matched Error: Unexpected token in factor expression: " + found);
+                skipToSyncToken();
+                break;
+            default:
+                report("Not Matched Error: Unexpected token " + found + " in " + GRAMMAR.nodeName(nonterminal));
+                skipToSyncToken();
+                break;
+        }
+    }
+}
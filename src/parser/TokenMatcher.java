@@ -0,0 +1,161 @@
+package parser;
+
+import lexer.TokenCursor;
+import lexer.TokenType;
+import error.CompilerError;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Token position, matching and panic-mode error recovery shared by Parser
+// and TableParser, so both engines report the same errors and skip to the
+// same tokens. After an error nothing is reported until a token matches
+// again, and once maxErrors errors are reported the rest of the input is
+// ignored.
+abstract class TokenMatcher {
+    TokenCursor tokens;
+    int position;
+    final List<CompilerError> errors = new ArrayList<>();
+    ParseListener[] listeners;  // The tree builder first
+    int maxErrors = Parser.DEFAULT_MAX_ERRORS;
+    boolean recovering;  // Errors are not reported again until a token matches
+    boolean aborted;     // The error budget is used up; the rest of the input is ignored
+
+    TokenMatcher(TokenCursor tokens, ParseListener builder) {
+        this.tokens = tokens;
+        this.listeners = new ParseListener[]{builder};
+    }
+
+    public List<CompilerError> getErrors() {
+        return errors;
+    }
+
+    // Listeners see every rule, matched token and error as the parse goes,
+    // after the tree builder
+    public void addListener(ParseListener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    // Stops parsing after this many errors, so a badly broken file gives a
+    // bounded error list
+    public void setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    boolean hasCurrent() {
+        return !aborted && tokens.hasToken(position);
+    }
+
+    TokenType currentType() {
+        return tokens.getType(position);
+    }
+
+    String currentValue() {
+        return tokens.getValue(position);
+    }
+
+    int currentLine() {
+        return tokens.getLineNumber(position);
+    }
+
+    String currentFile() {
+        return tokens.getFileName(position);
+    }
+
+    void advance() {
+        if (hasCurrent()) {
+            position++;
+        }
+    }
+
+    // The token type decides, not a refined terminal
+    void match(TokenType expectedType) {
+        if (!hasCurrent() || currentType() != expectedType) {
+            String found = hasCurrent() ?
+                    "'" + currentValue() + "' (" + currentType() + ")" :
+                    "end of input";
+            report("Expected " + expectedType + " but found " + found);
+
+            // Panic mode: drop tokens until the expected one turns up, unless a
+            // sync token comes first and the enclosing rules have to recover
+            while (hasCurrent() && currentType() != expectedType && !atSyncToken()) {
+                advance();
+            }
+            if (!hasCurrent() || currentType() != expectedType) {
+                return;
+            }
+        }
+        for (ParseListener listener : listeners) {
+            listener.matched(expectedType, tokens, position);
+        }
+        advance();
+        recovering = false;
+    }
+
+    void addError(CompilerError error) {
+        errors.add(error);
+        for (ParseListener listener : listeners) {
+            listener.error(error);
+        }
+    }
+
+    // Records an error at the current token, unless the parser is still
+    // recovering from the previous one
+    void report(String message) {
+        if (recovering || aborted) {
+            return;
+        }
+        addError(new CompilerError(
+                hasCurrent() ? currentLine() : -1,
+                message,
+                hasCurrent() ? currentFile() : null
+        ));
+        recovering = true;
+        if (errors.size() >= maxErrors) {
+            addError(new CompilerError(
+                    hasCurrent() ? currentLine() : -1,
+                    "Too many errors (" + maxErrors + "), parsing stopped",
+                    hasCurrent() ? currentFile() : null
+            ));
+            aborted = true;
+        }
+    }
+
+    boolean atSyncToken() {
+        return Prediction.atSyncToken(tokens, position);
+    }
+
+    // The statement or declaration around recovers there
+    void skipToSyncToken() {
+        while (hasCurrent() && !atSyncToken()) {
+            advance();
+        }
+    }
+
+    // Skips the rest of a broken class item, stopping at a sync token or where
+    // the next class item can start. A ; that ends the broken item goes with it.
+    void skipClassItem() {
+        advance();
+        while (hasCurrent() && !atSyncToken() && !Prediction.startsClassItem(currentType())) {
+            advance();
+        }
+        skipSemicolon();
+    }
+
+    // Same for a broken statement, stopping where the next statement can start
+    void skipStatement() {
+        advance();
+        while (hasCurrent() && !atSyncToken() && !Prediction.startsStatement(currentType())) {
+            advance();
+        }
+        skipSemicolon();
+    }
+
+    private void skipSemicolon() {
+        if (hasCurrent() && currentType() == TokenType.SEMICOLON) {
+            advance();
+        }
+    }
+}
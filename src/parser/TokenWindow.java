@@ -0,0 +1,94 @@
+package parser;
+
+import lexer.Token;
+import lexer.TokenCursor;
+import lexer.TokenType;
+
+import java.util.Iterator;
+import java.util.List;
+
+// Index-based view of the parser input. A List is accessed directly; an
+// Iterator is pulled lazily into a fixed ring buffer, so only the last
+// CAPACITY tokens are reachable when parsing from a stream.
+class TokenWindow implements TokenCursor {
+    static final int CAPACITY = 64;
+
+    private final List<Token> list;
+    private final Iterator<Token> source;
+    private final Token[] ring;
+    private int fetched;
+
+    TokenWindow(List<Token> tokens) {
+        this.list = tokens;
+        this.source = null;
+        this.ring = null;
+    }
+
+    TokenWindow(Iterator<Token> tokens) {
+        this.list = null;
+        this.source = tokens;
+        this.ring = new Token[CAPACITY];
+    }
+
+    // Returns the token at index, or null past the end of the input
+    Token get(int index) {
+        if (index < 0) {
+            return null;
+        }
+        if (list != null) {
+            return index < list.size() ? list.get(index) : null;
+        }
+
+        while (fetched <= index && source.hasNext()) {
+            ring[fetched % CAPACITY] = source.next();
+            fetched++;
+        }
+        if (index >= fetched) {
+            return null;
+        }
+        if (index < fetched - CAPACITY) {
+            throw new IllegalStateException("Token " + index + " is no longer in the lookahead window");
+        }
+        return ring[index % CAPACITY];
+    }
+
+    // A List can be read at any index, and from several threads; a stream cannot
+    boolean isRandomAccess() {
+        return list != null;
+    }
+
+    @Override
+    public boolean hasToken(int index) {
+        return get(index) != null;
+    }
+
+    @Override
+    public TokenType getType(int index) {
+        return get(index).getType();
+    }
+
+    @Override
+    public String getValue(int index) {
+        return get(index).getValue();
+    }
+
+    @Override
+    public boolean valueEquals(int index, String text) {
+        return get(index).getValue().equals(text);
+    }
+
+    @Override
+    public int getSymbol(int index) {
+        return get(index).getSymbol();
+    }
+
+    @Override
+    public int getLineNumber(int index) {
+        return get(index).getLineNumber();
+    }
+
+    @Override
+    public String getFileName(int index) {
+        return get(index).getFileName();
+    }
+}
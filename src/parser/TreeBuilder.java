@@ -0,0 +1,10 @@
+package parser;
+
+// The listener a parser builds its tree with. Besides the events it is told
+// where each rule starts and ends in the tokens, right after entering the
+// rule and right before leaving it.
+interface TreeBuilder extends ParseListener {
+    void startsAt(int index);
+
+    void endsAt(int index);
+}
@@ -0,0 +1,351 @@
+package parser;
+
+import lexer.SymbolTable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary form of a parse tree for caching it and handing it to other tools.
+// read() maps the file and returns the root; nodes are decoded only when
+// their parent's children are first asked for, so opening a large file costs
+// about nothing and memory grows with the part of the tree visited.
+//
+// File layout: magic and format version, the nodes, the string table, then a
+// fixed trailer. Nodes are written children first, so a node can refer to its
+// children by the distance back to them and the root comes last. A node is
+//   varint  name string << 3 | 4 if it has a file | 2 if a symbol | 1 if a value
+//   varint  value string, if any
+//   zigzag  line number, first token, end token - first token
+//   varint  file name string, if any
+//   varint  child count, then per child its offset subtracted from this one's
+// The string table is the UTF-8 bytes of every distinct string in order of
+// first use followed by count + 1 start offsets (8 bytes each) into them. The
+// trailer holds the root offset, the string table offset, the string count
+// and the magic again (big-endian, 8 + 8 + 4 + 4 bytes).
+public class TreeFile {
+    private static final int MAGIC = 0x50435054;  // "PCPT"
+    private static final int FORMAT_VERSION = 1;
+    private static final int TRAILER_SIZE = 24;
+    private static final int SEGMENT_BITS = 30;   // Mapped 1 GB at a time, as one mapping stops at 2 GB
+
+    private static final int VALUE = 1;
+    private static final int SYMBOL = 2;
+    private static final int FILE = 4;
+
+    private final ByteBuffer[] segments;
+    private final long stringsAt;       // Start of the string bytes
+    private final long stringOffsetsAt;
+    private final int stringCount;
+    private final SymbolTable symbols;
+    private final Map<Integer, String> names = new HashMap<>();  // Decoded rule, token and file names
+    private long position;              // Read position, guarded by this
+
+    private TreeFile(ByteBuffer[] segments, long stringsAt, long stringOffsetsAt, int stringCount, SymbolTable symbols) {
+        this.segments = segments;
+        this.stringsAt = stringsAt;
+        this.stringOffsetsAt = stringOffsetsAt;
+        this.stringCount = stringCount;
+        this.symbols = symbols;
+    }
+
+    public static void write(ParseTree tree, Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(tree.getRoot(), out);
+        }
+    }
+
+    // Writes node and everything below it, which becomes the root when read
+    public static void write(ParseTreeNode node, OutputStream out) throws IOException {
+        new Output(out).write(node);
+    }
+
+    public static ParseTreeNode read(Path path) throws IOException {
+        return read(path, null);
+    }
+
+    // Symbols of the values are interned into symbols, as their ids are only
+    // valid in the table they were made with; without one they are -1
+    public static ParseTreeNode read(Path path, SymbolTable symbols) throws IOException {
+        ByteBuffer[] segments;
+        long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            segments = new ByteBuffer[(int) ((size + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_BITS, size - start));
+            }
+        }
+        if (size < 8 + TRAILER_SIZE) {
+            throw new IOException("Not a parse tree file: " + path);
+        }
+
+        TreeFile file = new TreeFile(segments, 0, 0, 0, null);
+        long trailer = size - TRAILER_SIZE;
+        long root = file.getLong(trailer);
+        long stringsAt = file.getLong(trailer + 8);
+        int stringCount = file.getInt(trailer + 16);
+        if (file.getInt(0) != MAGIC || file.getInt(4) != FORMAT_VERSION || file.getInt(trailer + 20) != MAGIC
+                || stringCount < 0 || stringsAt < 8 || stringsAt > trailer - (stringCount + 1) * 8L
+                || root < 8 || root >= stringsAt) {
+            throw new IOException("Not a parse tree file of this version: " + path);
+        }
+        long stringOffsetsAt = trailer - (stringCount + 1) * 8L;
+        return new TreeFile(segments, stringsAt, stringOffsetsAt, stringCount, symbols).node(root);
+    }
+
+    // Decodes the node at offset, without its children
+    synchronized MappedTreeNode node(long offset) {
+        position = offset;
+        long header = readVarint();
+        String name = name((int) (header >>> 3));
+        String value = (header & VALUE) != 0 ? string((int) readVarint()) : null;
+        int symbol = (header & SYMBOL) != 0 && symbols != null ? symbols.intern(value) : -1;
+        int lineNumber = (int) readZigzag();
+        int firstToken = (int) readZigzag();
+        int endToken = firstToken + (int) readZigzag();
+        String fileName = (header & FILE) != 0 ? name((int) readVarint()) : null;
+
+        MappedTreeNode node = new MappedTreeNode(this, offset, position, name, value, symbol, lineNumber, fileName);
+        node.firstToken = firstToken;
+        node.endToken = endToken;
+        return node;
+    }
+
+    // Offsets of the children of the node at offset, from its child count at childrenAt
+    synchronized long[] children(long offset, long childrenAt) {
+        position = childrenAt;
+        long[] children = new long[(int) readVarint()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = offset - readVarint();
+        }
+        return children;
+    }
+
+    // Names repeat throughout the tree and are kept; values are decoded each time
+    private String name(int id) {
+        String name = names.get(id);
+        if (name == null) {
+            name = string(id);
+            names.put(id, name);
+        }
+        return name;
+    }
+
+    private String string(int id) {
+        if (id < 0 || id >= stringCount) {
+            throw new IllegalStateException("Broken parse tree file: no string " + id);
+        }
+        long start = stringsAt + getLong(stringOffsetsAt + id * 8L);
+        long end = stringsAt + getLong(stringOffsetsAt + (id + 1) * 8L);
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = getByte(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long readVarint() {
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = getByte(position++);
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    private long readZigzag() {
+        long n = readVarint();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private byte getByte(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].get((int) (offset & ((1L << SEGMENT_BITS) - 1)));
+    }
+
+    private int getInt(long offset) {
+        int result = 0;
+        for (int i = 0; i < 4; i++) {
+            result = result << 8 | getByte(offset + i) & 0xFF;
+        }
+        return result;
+    }
+
+    private long getLong(long offset) {
+        return (long) getInt(offset) << 32 | getInt(offset + 4) & 0xFFFFFFFFL;
+    }
+
+    // Buffered writer of the format, counting the bytes for the offsets
+    private static class Output {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[8192];
+        private int length;
+        private long written;  // Bytes before buffer
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+
+        Output(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(ParseTreeNode root) throws IOException {
+            writeInt(MAGIC);
+            writeInt(FORMAT_VERSION);
+
+            // Children first with an explicit stack; a finished node leaves
+            // its offset on offsets for the parent to refer to
+            ParseTreeNode[] stack = new ParseTreeNode[64];
+            int[] nextChild = new int[64];
+            int[] childOffsetsFrom = new int[64];
+            long[] offsets = new long[64];
+            int offsetCount = 0;
+            int size = 1;
+            stack[0] = root;
+            while (size > 0) {
+                ParseTreeNode node = stack[size - 1];
+                List<ParseTreeNode> children = node.getChildren();
+                if (nextChild[size - 1] < children.size()) {
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                        nextChild = Arrays.copyOf(nextChild, size * 2);
+                        childOffsetsFrom = Arrays.copyOf(childOffsetsFrom, size * 2);
+                    }
+                    stack[size] = children.get(nextChild[size - 1]++);
+                    nextChild[size] = 0;
+                    childOffsetsFrom[size] = offsetCount;
+                    size++;
+                    continue;
+                }
+
+                long offset = position();
+                writeNode(node, offsets, childOffsetsFrom[size - 1], offsetCount, offset);
+                offsetCount = childOffsetsFrom[size - 1];
+                if (offsetCount == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsetCount * 2);
+                }
+                offsets[offsetCount++] = offset;
+                size--;
+            }
+
+            long stringsAt = position();
+            long[] starts = new long[strings.size() + 1];
+            for (int i = 0; i < strings.size(); i++) {
+                writeBytes(strings.get(i));
+                starts[i + 1] = position() - stringsAt;
+            }
+            for (long start : starts) {
+                writeLong(start);
+            }
+            writeLong(offsets[0]);
+            writeLong(stringsAt);
+            writeInt(strings.size());
+            writeInt(MAGIC);
+            out.write(buffer, 0, length);
+            length = 0;
+            out.flush();
+        }
+
+        private void writeNode(ParseTreeNode node, long[] offsets, int from, int to, long offset) throws IOException {
+            String value = node.getValue();
+            String fileName = node.getFileName();
+            long header = (long) stringId(node.getName()) << 3;
+            if (value != null) {
+                header |= VALUE;
+                if (node.getSymbol() >= 0) {
+                    header |= SYMBOL;
+                }
+            }
+            if (fileName != null) {
+                header |= FILE;
+            }
+            writeVarint(header);
+            if (value != null) {
+                writeVarint(stringId(value));
+            }
+            writeZigzag(node.getLineNumber());
+            writeZigzag(node.getFirstToken());
+            writeZigzag((long) node.getEndToken() - node.getFirstToken());
+            if (fileName != null) {
+                writeVarint(stringId(fileName));
+            }
+            writeVarint(to - from);
+            for (int i = from; i < to; i++) {
+                writeVarint(offset - offsets[i]);
+            }
+        }
+
+        private int stringId(String string) {
+            Integer id = stringIds.get(string);
+            if (id == null) {
+                id = strings.size();
+                stringIds.put(string, id);
+                strings.add(string.getBytes(StandardCharsets.UTF_8));
+            }
+            return id;
+        }
+
+        private long position() {
+            return written + length;
+        }
+
+        private void writeByte(int b) throws IOException {
+            if (length == buffer.length) {
+                out.write(buffer, 0, length);
+                written += length;
+                length = 0;
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            int from = 0;
+            while (from < bytes.length) {
+                if (length == buffer.length) {
+                    out.write(buffer, 0, length);
+                    written += length;
+                    length = 0;
+                }
+                int count = Math.min(bytes.length - from, buffer.length - length);
+                System.arraycopy(bytes, from, buffer, length, count);
+                length += count;
+                from += count;
+            }
+        }
+
+        private void writeVarint(long n) throws IOException {
+            while ((n & ~0x7FL) != 0) {
+                writeByte((int) (n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            writeByte((int) n);
+        }
+
+        private void writeZigzag(long n) throws IOException {
+            writeVarint(n << 1 ^ n >> 63);
+        }
+
+        private void writeInt(int n) throws IOException {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                writeByte(n >>> shift);
+            }
+        }
+
+        private void writeLong(long n) throws IOException {
+            writeInt((int) (n >>> 32));
+            writeInt((int) n);
+        }
+    }
+}
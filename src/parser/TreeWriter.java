@@ -0,0 +1,215 @@
+package parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+// Writes a parse tree as indented text, one node per line, in the format of
+// ParseTree.toString. Nodes are visited with an explicit stack and the text
+// goes out through a fixed buffer, so output starts as soon as the buffer
+// fills, the whole text is never held and any depth works.
+public class TreeWriter {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Writer out;
+    private final boolean showFileInfo;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int length;
+    private char[] spaces = new char[128];  // Indentation, grown to the deepest level written
+    private final char[] digits = new char[10];
+
+    public TreeWriter(Writer out, boolean showFileInfo) {
+        this.out = out;
+        this.showFileInfo = showFileInfo;
+        Arrays.fill(spaces, ' ');
+    }
+
+    // Writes UTF-8
+    public TreeWriter(OutputStream out, boolean showFileInfo) {
+        this(new OutputStreamWriter(out, StandardCharsets.UTF_8), showFileInfo);
+    }
+
+    public void write(ParseTree tree) throws IOException {
+        write(tree.getRoot());
+    }
+
+    // Writes node and everything below it, node without indentation
+    public void write(ParseTreeNode node) throws IOException {
+        ParseTreeNode[] stack = new ParseTreeNode[64];
+        int[] depths = new int[64];
+        stack[0] = node;
+        int size = 1;
+        while (size > 0) {
+            size--;
+            ParseTreeNode current = stack[size];
+            int depth = depths[size];
+            writeLine(depth, current.getName(), current.getValue(), current.getLineNumber(), current.getFileName());
+
+            // Children go on in reverse, so the first comes off next
+            List<ParseTreeNode> children = current.getChildren();
+            if (size + children.size() > stack.length) {
+                int capacity = Math.max(stack.length * 2, size + children.size());
+                stack = Arrays.copyOf(stack, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack[size] = children.get(i);
+                depths[size] = depth + 1;
+                size++;
+            }
+        }
+        flush();
+    }
+
+    public void write(RedNode node) throws IOException {
+        RedNode[] stack = new RedNode[64];
+        int[] depths = new int[64];
+        stack[0] = node;
+        int size = 1;
+        while (size > 0) {
+            size--;
+            RedNode current = stack[size];
+            int depth = depths[size];
+            writeLine(depth, current.getName(), current.getValue(), current.getLineNumber(), current.getFileName());
+
+            int count = current.getChildCount();
+            if (size + count > stack.length) {
+                int capacity = Math.max(stack.length * 2, size + count);
+                stack = Arrays.copyOf(stack, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                stack[size] = current.getChild(i);
+                depths[size] = depth + 1;
+                size++;
+            }
+        }
+        flush();
+    }
+
+    // Nodes of an ArenaTree are already in document order; only the open
+    // ancestors are kept to know the depth
+    public void write(ArenaTree tree) throws IOException {
+        int[] ancestors = new int[64];
+        int depth = 0;
+        for (int node = 0; node < tree.size(); node++) {
+            int parent = tree.getParent(node);
+            while (depth > 0 && ancestors[depth - 1] != parent) {
+                depth--;
+            }
+            writeLine(depth, tree.getName(node), tree.getValue(node), tree.getLineNumber(node), tree.getFileName(node));
+            if (depth == ancestors.length) {
+                ancestors = Arrays.copyOf(ancestors, depth * 2);
+            }
+            ancestors[depth++] = node;
+        }
+        flush();
+    }
+
+    // Passes the buffered text on and flushes the Writer
+    public void flush() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+        out.flush();
+    }
+
+    private void writeLine(int depth, String name, String value, int lineNumber, String fileName) throws IOException {
+        // Indentation
+        if (depth * 2 > spaces.length) {
+            spaces = new char[Math.max(depth * 2, spaces.length * 2)];
+            Arrays.fill(spaces, ' ');
+        }
+        append(spaces, 0, depth * 2);
+
+        // Node name and value
+        append(name);
+        if (value != null) {
+            append(": ");
+            append(value);
+        }
+
+        // Line number and file info
+        if (lineNumber > 0) {
+            append(" (Line ");
+            int start = digits.length;
+            for (int n = lineNumber; n > 0; n /= 10) {
+                digits[--start] = (char) ('0' + n % 10);
+            }
+            append(digits, start, digits.length - start);
+            if (showFileInfo && fileName != null) {
+                append(", File: ");
+                append(fileName);
+            }
+            append(")");
+        }
+        append("\n");
+    }
+
+    private void append(String text) throws IOException {
+        int from = 0;
+        while (from < text.length()) {
+            if (length == buffer.length) {
+                drain();
+            }
+            int count = Math.min(text.length() - from, buffer.length - length);
+            text.getChars(from, from + count, buffer, length);
+            length += count;
+            from += count;
+        }
+    }
+
+    private void append(char[] text, int from, int count) throws IOException {
+        int end = from + count;
+        while (from < end) {
+            if (length == buffer.length) {
+                drain();
+            }
+            int chunk = Math.min(end - from, buffer.length - length);
+            System.arraycopy(text, from, buffer, length, chunk);
+            length += chunk;
+            from += chunk;
+        }
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    // The toString of the trees; a StringWriter does not throw
+    static String toString(ParseTreeNode node, boolean showFileInfo) {
+        StringWriter text = new StringWriter();
+        try {
+            new TreeWriter(text, showFileInfo).write(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return text.toString();
+    }
+
+    static String toString(RedNode node, boolean showFileInfo) {
+        StringWriter text = new StringWriter();
+        try {
+            new TreeWriter(text, showFileInfo).write(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return text.toString();
+    }
+
+    static String toString(ArenaTree tree, boolean showFileInfo) {
+        StringWriter text = new StringWriter();
+        try {
+            new TreeWriter(text, showFileInfo).write(tree);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,151 @@
+package lexer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Checks the on-disk token cache: a stored run loads back with the same
+// tokens, the least recently loaded runs are evicted first once the cache
+// is over its limit, truncated runs and runs whose includes changed are
+// misses, and a reopened cache counts the runs already there.
+// Run with: java -cp <classes> lexer.DiskTokenCacheTest
+class DiskTokenCacheTest {
+    private static final String SOURCE = "Program\nDivision C InferedFrom Base {\nSetOfClo s = \"text\" ;\n}\nEnd\n";
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("tokens");
+        try {
+            roundTrip(directory.resolve("round"));
+            leastRecentlyUsed(directory.resolve("lru"));
+            misses(directory.resolve("misses"));
+            throughLexer(directory.resolve("lexer"));
+        } finally {
+            deleteAll(directory);
+        }
+        System.out.println("DiskTokenCacheTest: ok");
+    }
+
+    private static void roundTrip(Path directory) throws IOException {
+        DiskTokenCache cache = new DiskTokenCache(directory, Long.MAX_VALUE);
+        TokenBuffer tokens = new Lexer().tokenizeToBuffer(SOURCE, "main.txt");
+        String key = cache.key("main.txt", SOURCE);
+        check(cache.load(key, new SymbolTable()) == null, "an empty cache has no run");
+        cache.store(key, tokens, List.of());
+        SymbolTable symbols = new SymbolTable();
+        IncludeCache.Entry entry = cache.load(key, symbols);
+        check(entry != null && describe(entry.tokens).equals(describe(tokens)), "the stored run loads back unchanged");
+        for (int i = 0; i < entry.tokens.size(); i++) {
+            int symbol = entry.tokens.getSymbol(i);
+            check(symbol < 0 || symbols.getName(symbol).equals(entry.tokens.getValue(i)), "words are interned into symbols");
+        }
+        check(cache.getHits() == 1 && cache.getMisses() == 1, "one hit and one miss");
+        check(!cache.key("main.txt", SOURCE + " ").equals(key) && !cache.key("other.txt", SOURCE).equals(key),
+                "the key depends on the file name and content");
+    }
+
+    private static void leastRecentlyUsed(Path directory) throws IOException {
+        TokenBuffer tokens = new Lexer().tokenizeToBuffer(SOURCE, "main.txt");
+        DiskTokenCache measure = new DiskTokenCache(directory, Long.MAX_VALUE);
+        measure.store(measure.key("a", SOURCE), tokens, List.of());
+        long runBytes = measure.getSizeBytes();
+        measure.clear();
+
+        // Room for two runs; a is loaded after b was stored, so b goes first
+        DiskTokenCache cache = new DiskTokenCache(directory, runBytes * 5 / 2);
+        String a = cache.key("a", SOURCE);
+        String b = cache.key("b", SOURCE);
+        String c = cache.key("c", SOURCE);
+        cache.store(a, tokens, List.of());
+        cache.store(b, tokens, List.of());
+        long now = System.currentTimeMillis();
+        setLastUsed(directory, a, now - 20_000);
+        setLastUsed(directory, b, now - 10_000);
+        check(cache.load(a, new SymbolTable()) != null, "a is cached");
+        cache.store(c, tokens, List.of());
+        check(cache.getEvictions() == 1, "expected one eviction, got " + cache.getEvictions());
+        check(cache.getSizeBytes() == 2 * runBytes, "the cache holds two runs after evicting");
+        check(cache.load(b, new SymbolTable()) == null, "b was used least recently and is evicted");
+        check(cache.load(a, new SymbolTable()) != null && cache.load(c, new SymbolTable()) != null, "a and c stay");
+
+        // Without a load in between the oldest store goes
+        setLastUsed(directory, a, now - 20_000);
+        setLastUsed(directory, c, now - 10_000);
+        cache.store(b, tokens, List.of());
+        check(cache.load(a, new SymbolTable()) == null && cache.load(c, new SymbolTable()) != null, "a goes before c");
+
+        // A reopened cache counts what is on disk
+        check(new DiskTokenCache(directory, Long.MAX_VALUE).getSizeBytes() == 2 * runBytes, "reopened size");
+    }
+
+    private static void misses(Path directory) throws IOException {
+        DiskTokenCache cache = new DiskTokenCache(directory, Long.MAX_VALUE);
+        TokenBuffer tokens = new Lexer().tokenizeToBuffer(SOURCE, "main.txt");
+
+        String truncated = cache.key("truncated", SOURCE);
+        cache.store(truncated, tokens, List.of());
+        Path file = directory.resolve(truncated + ".tok");
+        Files.write(file, Arrays.copyOf(Files.readAllBytes(file), (int) Files.size(file) / 2));
+        check(cache.load(truncated, new SymbolTable()) == null, "a truncated run is a miss");
+        check(!Files.exists(file), "a truncated run is deleted");
+
+        Path include = directory.resolve("inc.txt");
+        Files.writeString(include, "Ire x ;\n");
+        String dependent = cache.key("dependent", SOURCE);
+        cache.store(dependent, tokens, List.of(new IncludeCache.FileStamp(include.toFile())));
+        check(cache.load(dependent, new SymbolTable()) != null, "a run with unchanged includes is a hit");
+        Files.writeString(include, "Ire x ; Ire y ;\n");
+        check(cache.load(dependent, new SymbolTable()) == null, "a run whose include changed is a miss");
+    }
+
+    // A Lexer with the cache lexes a source once, also when it is included
+    private static void throughLexer(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path include = directory.resolve("inc.txt");
+        Files.writeString(include, "Ire included ;\n");
+        String main = directory.resolve("main.txt").toString();
+        String source = SOURCE + "Using(\"inc.txt\");\n";
+        DiskTokenCache cache = new DiskTokenCache(directory.resolve("cache"), Long.MAX_VALUE);
+        List<String> expected = describe(new Lexer().tokenizeToBuffer(source, main));
+
+        Lexer first = new Lexer();
+        first.setDiskCache(cache);
+        check(describe(first.tokenizeToBuffer(source, main)).equals(expected), "the first lex stores what it lexed");
+        check(cache.getHits() == 0 && cache.getMisses() == 2, "the source and the include are misses");
+        Lexer second = new Lexer();
+        second.setDiskCache(cache);
+        check(describe(second.tokenizeToBuffer(source, main)).equals(expected), "the second lex loads the same tokens");
+        check(cache.getHits() == 1, "the source is a hit and its include is not lexed");
+    }
+
+    private static void setLastUsed(Path directory, String key, long millis) throws IOException {
+        Files.setLastModifiedTime(directory.resolve(key + ".tok"), FileTime.fromMillis(millis));
+    }
+
+    private static List<String> describe(TokenBuffer tokens) {
+        List<String> described = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            described.add(tokens.getLineNumber(i) + " " + tokens.getType(i) + " " + tokens.getValue(i)
+                    + " " + tokens.getFileName(i));
+        }
+        return described;
+    }
+
+    private static void deleteAll(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted((x, y) -> y.compareTo(x)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package lexer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Checks Using includes through an IncludeCache, lexing includes in order
+// and in parallel: a cycle is reported once where it closes and the files
+// in it are still lexed once, a file included twice without a cycle is no
+// error and comes from the cache, and changes on disk are picked up.
+// Run with: java -cp <classes> lexer.IncludeTest
+class IncludeTest {
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("include");
+        try {
+            for (boolean parallel : new boolean[]{false, true}) {
+                run(directory, parallel);
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+        System.out.println("IncludeTest: ok");
+    }
+
+    private static void run(Path directory, boolean parallel) throws IOException {
+        String mode = parallel ? "parallel: " : "sequential: ";
+
+        // b and c include each other
+        Files.writeString(directory.resolve("b.txt"), "Ire b ;\nUsing(\"c.txt\");\n");
+        Files.writeString(directory.resolve("c.txt"), "Using(\"b.txt\");\nIre c ;\n");
+        String main = directory.resolve("main.txt").toString();
+        IncludeCache cache = new IncludeCache();
+        List<String> tokens = lex(cache, parallel, "Program\nUsing(\"b.txt\");\nEnd\n", main);
+        check(tokens.equals(List.of("Program", "Ire", "b", ";", "ERROR Circular Using of b.txt", "Ire", "c", ";", "End")),
+                mode + "cycle gave " + tokens);
+        check(cache.size() == 0, mode + "runs that hit a cycle must not be cached, found " + cache.size());
+        check(lex(cache, parallel, "Program\nUsing(\"b.txt\");\nEnd\n", main).equals(tokens),
+                mode + "lexing the cycle again differs");
+
+        // A file including itself, and the main file included from an include
+        Files.writeString(directory.resolve("self.txt"), "Ire s ;\nUsing(\"self.txt\");\n");
+        tokens = lex(cache, parallel, "Using(\"self.txt\");\n", main);
+        check(tokens.equals(List.of("Ire", "s", ";", "ERROR Circular Using of self.txt")), mode + "self gave " + tokens);
+        Files.writeString(directory.resolve("back.txt"), "Using(\"main.txt\");\n");
+        Files.writeString(Path.of(main), "Ire m ;\nUsing(\"back.txt\");\n");
+        tokens = lex(cache, parallel, Files.readString(Path.of(main)), main);
+        check(tokens.equals(List.of("Ire", "m", ";", "ERROR Circular Using of main.txt")), mode + "back gave " + tokens);
+
+        // e is included directly and through f, which is no cycle
+        Files.writeString(directory.resolve("e.txt"), "Ire e ;\n");
+        Files.writeString(directory.resolve("f.txt"), "Using(\"e.txt\");\nIre f ;\n");
+        cache = new IncludeCache();
+        tokens = lex(cache, parallel, "Using(\"e.txt\");\nUsing(\"f.txt\");\n", main);
+        check(tokens.equals(List.of("Ire", "e", ";", "Ire", "e", ";", "Ire", "f", ";")), mode + "diamond gave " + tokens);
+        check(cache.size() == 2, mode + "expected e and f cached, found " + cache.size());
+        check(cache.getHits() > 0, mode + "the second include of e should come from the cache");
+
+        // A changed include is lexed again, also where it was pulled in
+        // through another file. The stamp may only have a precision of
+        // seconds, so the size changes too.
+        Files.writeString(directory.resolve("e.txt"), "Ire e ; Ire ee ;\n");
+        tokens = lex(cache, parallel, "Using(\"f.txt\");\n", main);
+        check(tokens.equals(List.of("Ire", "e", ";", "Ire", "ee", ";", "Ire", "f", ";")), mode + "changed e gave " + tokens);
+
+        // Once c no longer includes b, the chain is no cycle and is cached
+        Files.writeString(directory.resolve("c.txt"), "Ire c ;\n");
+        cache = new IncludeCache();
+        tokens = lex(cache, parallel, "Program\nUsing(\"b.txt\");\nEnd\n", main);
+        check(tokens.equals(List.of("Program", "Ire", "b", ";", "Ire", "c", ";", "End")), mode + "broken cycle gave " + tokens);
+        check(cache.size() == 2, mode + "expected b and c cached, found " + cache.size());
+    }
+
+    private static List<String> lex(IncludeCache cache, boolean parallel, String input, String fileName) {
+        List<String> values = new ArrayList<>();
+        for (Token token : new Lexer(cache, parallel).tokenize(input, fileName)) {
+            values.add(token.getType() == TokenType.ERROR ? "ERROR " + token.getValue() : token.getValue());
+        }
+        return values;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
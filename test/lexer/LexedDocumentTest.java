@@ -0,0 +1,168 @@
+package lexer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Checks that a LexedDocument edited with random replaceLines has the tokens
+// of the edited text lexed from scratch, with comments opened and closed
+// across lines and an include, that the reported edit range covers every
+// changed token, and that only the lines an edit reaches are lexed again.
+// Run with: java -cp <classes> lexer.LexedDocumentTest
+class LexedDocumentTest {
+    private static final int EDITS = 2_000;
+    private static final String[] LINES = {
+            "Ire x ;", "x = x + 1 ;", "Division C InferedFrom Base {", "}", "", "  ", "/- line comment",
+            "/## open", "text ##/ Ire y ;", "Ire z ; /## in ##/ z = 2 ;", "##/", "Clo c = 'c' ;", "\"open string"
+    };
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("document");
+        Path include = directory.resolve("inc.txt");
+        Files.writeString(include, "Ire included ;\n");
+        String fileName = directory.resolve("main.txt").toString();
+        try {
+            randomEdits(fileName);
+            trailingComment(fileName);
+            relexedLines(fileName);
+        } finally {
+            Files.delete(include);
+            Files.delete(directory);
+        }
+        System.out.println("LexedDocumentTest: ok");
+    }
+
+    private static void randomEdits(String fileName) {
+        Random random = new Random(1);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            lines.add(randomLine(random));
+        }
+        LexedDocument document = LexedDocument.lex(new Lexer(), String.join("\n", lines), fileName);
+        for (int edit = 0; edit < EDITS; edit++) {
+            List<String> before = describe(document.getTokens());
+            int first = 1 + random.nextInt(lines.size());
+            int removed = random.nextInt(Math.min(4, lines.size() - first + 1));
+            List<String> added = new ArrayList<>();
+            for (int i = random.nextInt(4); i > 0; i--) {
+                added.add(randomLine(random));
+            }
+            if (added.isEmpty() && removed == lines.size()) {
+                continue;
+            }
+            // An empty replacement only removes lines, even where it was one empty line
+            String replacement = String.join("\n", added);
+            if (replacement.isEmpty()) {
+                added.clear();
+            }
+            document.replaceLines(first, removed, replacement);
+            lines.subList(first - 1, first - 1 + removed).clear();
+            lines.addAll(first - 1, added);
+            String text = String.join("\n", lines);
+
+            List<String> after = describe(document.getTokens());
+            List<String> expected = describe(LexedDocument.lex(new Lexer(), text, fileName).getTokens());
+            check(expected, after, "edit " + edit);
+            check(document.getLineCount() == lines.size(), "edit " + edit + " line count");
+            checkEditRange(document, before, after, "edit " + edit);
+            check(withoutTrailingComments(after).equals(describe(new Lexer().tokenizeToBuffer(text, fileName))),
+                    "edit " + edit + " differs from tokenize beyond the trailing empty comment tokens");
+        }
+    }
+
+    // Lines of an unterminated comment at the end give empty comment tokens,
+    // which tokenize drops like every trailing empty line
+    private static void trailingComment(String fileName) {
+        String text = "Program\n/## open\nstill open\n\n\n";
+        List<String> kept = describe(LexedDocument.lex(new Lexer(), text, fileName).getTokens());
+        List<String> lexed = describe(new Lexer().tokenizeToBuffer(text, fileName));
+        check(kept.size() == lexed.size() + 3, "expected three more tokens than tokenize, got " + kept + " and " + lexed);
+        check(kept.subList(0, lexed.size()).equals(lexed), "the tokens before the trailing lines differ");
+        for (String token : kept.subList(lexed.size(), kept.size())) {
+            check(token.endsWith(" COMMENT "), "expected an empty comment token, got " + token);
+        }
+
+        // Closing the comment makes the trailing lines plain empty lines again
+        LexedDocument document = LexedDocument.lex(new Lexer(), text, fileName);
+        document.replaceLines(3, 1, "still open ##/");
+        check(describe(document.getTokens()).equals(describe(new Lexer().tokenizeToBuffer(
+                "Program\n/## open\nstill open ##/\n\n\n", fileName))), "closing the comment");
+    }
+
+    private static void relexedLines(String fileName) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1_000; i++) {
+            text.append("Ire x").append(i).append(" ;\n");
+        }
+        LexedDocument document = LexedDocument.lex(new Lexer(), text.toString(), fileName);
+        check(document.replaceLines(500, 1, "Ire y ;") == 1, "a plain line edit lexes one line");
+        check(document.replaceLines(500, 0, "Ire a ;\nIre b ;") == 2, "inserting two lines lexes two");
+        int toEnd = document.getLineCount() - 499;
+        check(document.replaceLines(500, 1, "/## open") == toEnd, "opening a comment lexes to the end");
+        check(document.replaceLines(500, 1, "Ire y ;") == toEnd, "removing the comment lexes to the end");
+        check(document.replaceLines(10, 1, "Using(\"inc.txt\");") == 1, "an include line lexes one line");
+        check(document.getTokens().getValue(document.getEditStart() + 1).equals("included"), "the include is in the edit");
+    }
+
+    // The tokens before the edit range are unchanged, and those after it moved
+    private static void checkEditRange(LexedDocument document, List<String> before, List<String> after, String edit) {
+        int start = document.getEditStart();
+        int oldEnd = document.getEditOldEnd();
+        int newEnd = document.getEditNewEnd();
+        check(before.subList(0, start).equals(after.subList(0, start)), edit + " changed tokens before its range");
+        check(before.size() - oldEnd == after.size() - newEnd, edit + " range does not match the token counts");
+        TokenBuffer tokens = document.getTokens();
+        for (int i = oldEnd; i < before.size(); i++) {
+            int moved = i - oldEnd + newEnd;
+            String[] old = before.get(i).split(" ", 3);
+            int line = Integer.parseInt(old[0]);
+            if (document.getFileName().equals(tokens.getFileName(moved))) {
+                line += document.getEditLineShift();
+            }
+            check(after.get(moved).equals(line + " " + old[1] + " " + old[2]), edit + " moved token " + i + " wrongly");
+        }
+    }
+
+    private static String randomLine(Random random) {
+        if (random.nextInt(50) == 0) {
+            return "Using(\"inc.txt\");";
+        }
+        return LINES[random.nextInt(LINES.length)];
+    }
+
+    private static List<String> withoutTrailingComments(List<String> tokens) {
+        int end = tokens.size();
+        while (end > 0 && tokens.get(end - 1).endsWith(" COMMENT ")) {
+            end--;
+        }
+        return tokens.subList(0, end);
+    }
+
+    // Line, type and text of each token, which is all a relex may not change
+    private static List<String> describe(TokenBuffer tokens) {
+        String[] described = new String[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++) {
+            described[i] = tokens.getLineNumber(i) + " " + tokens.getType(i) + " " + tokens.getValue(i);
+        }
+        return Arrays.asList(described);
+    }
+
+    private static void check(List<String> expected, List<String> actual, String edit) {
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            check(expected.get(i).equals(actual.get(i)),
+                    edit + " token " + i + ": expected " + expected.get(i) + " but got " + actual.get(i));
+        }
+        check(expected.size() == actual.size(),
+                edit + ": expected " + expected.size() + " tokens but got " + actual.size());
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package lexer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Checks that the character Scanner splits and classifies tokens like the
+// regex pipeline it replaced, which is kept below as the reference, on
+// random lines lexed from a String, a TokenBuffer, a TokenStream and a
+// memory-mapped file. Run with: java -cp <classes> lexer.ScannerTest
+class ScannerTest {
+    private static final int LINES = 5_000;
+
+    // The regex pipeline before the Scanner
+    private static final Pattern TOKEN_PATTERNS = Pattern.compile(
+            "\\s*(?:" +
+                    "/(?:-|##)|" +
+                    "\"(?:\\\\.|[^\"\\\\])*\"|" +
+                    "'(?:\\\\.|[^'\\\\])'|" +
+                    "\\d+|" +
+                    "[a-zA-Z_][a-zA-Z0-9_]*|" +
+                    "&&|\\|\\||~|==|!=|<=|>=|[=<>+\\-*/.,;{}()\\[\\]]" +
+                    ")"
+    );
+    private static final String[] KEYWORDS = {
+            "Division", "InferedFrom", "WhetherDoElse", "Ire", "Sire", "Clo",
+            "SetOfClo", "FBU", "SFBU", "None", "Logical", "terminatethis",
+            "Rotatewhen", "Continuewhen", "Replywith", "Seop", "Check",
+            "Program", "End", "Using"
+    };
+    private static final TokenType[] KEYWORD_TYPES = {
+            TokenType.CLASS, TokenType.INHERITANCE, TokenType.CONDITION, TokenType.INTEGER, TokenType.SINTEGER,
+            TokenType.CHARACTER, TokenType.STRING, TokenType.FLOAT, TokenType.SFLOAT, TokenType.VOID,
+            TokenType.BOOLEAN, TokenType.BREAK, TokenType.LOOP, TokenType.LOOP, TokenType.RETURN,
+            TokenType.STRUCT, TokenType.SWITCH, TokenType.START_STATEMENT, TokenType.END_STATEMENT,
+            TokenType.INCLUSION
+    };
+
+    // Pieces the random lines are made of, joined with or without spaces
+    private static final String[] PIECES = {
+            "Division", "Ire", "SetOfClo", "Rotatewhen", "End", "count", "_x1", "Iree", "FBU2", "42", "007",
+            "&&", "||", "~", "==", "!=", "<=", ">=", "<>", "<", ">", "=", "+", "-", "*", "/ ", ".", ",", ";",
+            "{", "}", "(", ")", "[", "]", "\"text\"", "\"a \\\" b\"", "\"é\"", "\"open", "'c'", "'\\n'", "''",
+            "'ab'", "@", "$", "#", "&", "|", "!", "\t"
+    };
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(1);
+        StringBuilder source = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int line = 1; line <= LINES; line++) {
+            String text = randomLine(random);
+            source.append(text).append('\n');
+            expect(text.trim(), line, expected);
+        }
+
+        check(expected, describe(new Lexer().tokenize(source.toString(), null)), "tokenize");
+        check(expected, describe(new Lexer().tokenizeToBuffer(source.toString(), null).asList()), "tokenizeToBuffer");
+        List<Token> streamed = new ArrayList<>();
+        new Lexer().stream(new StringReader(source.toString()), null).forEachRemaining(streamed::add);
+        check(expected, describe(streamed), "stream");
+
+        Path file = Files.createTempFile("scanner", ".txt");
+        try {
+            Files.writeString(file, source);
+            check(expected, describe(new Lexer().tokenize(MappedSource.open(file))), "mapped tokenize");
+            check(expected, describe(new Lexer().tokenizeToBuffer(MappedSource.open(file)).asList()), "mapped buffer");
+        } finally {
+            Files.delete(file);
+        }
+
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            String keyword = KEYWORDS[i];
+            check(Scanner.keywordType(keyword, 0, keyword.length()) == KEYWORD_TYPES[i], keyword);
+            check(Scanner.keywordType(keyword + "s", 0, keyword.length() + 1) == TokenType.IDENTIFIER, keyword + "s");
+            check(Scanner.keywordType(keyword, 0, keyword.length() - 1) == TokenType.IDENTIFIER,
+                    keyword.substring(0, keyword.length() - 1));
+        }
+        System.out.println("ScannerTest: " + expected.size() + " tokens ok");
+    }
+
+    private static String randomLine(Random random) {
+        while (true) {
+            StringBuilder line = new StringBuilder();
+            int pieces = random.nextInt(12);
+            for (int i = 0; i < pieces; i++) {
+                line.append(PIECES[random.nextInt(PIECES.length)]);
+                if (random.nextBoolean()) {
+                    line.append(' ');
+                }
+            }
+            // Comments and Using lines are not handled by the Scanner
+            String text = line.toString();
+            if (!text.contains("/-") && !text.contains("/#") && !text.trim().startsWith("Using")) {
+                return text;
+            }
+        }
+    }
+
+    // What the regex pipeline made of one trimmed line
+    private static void expect(String line, int lineNumber, List<String> expected) {
+        Matcher matcher = TOKEN_PATTERNS.matcher(line);
+        while (matcher.find()) {
+            String value = matcher.group().trim();
+            if (!value.isEmpty()) {
+                expected.add(lineNumber + " " + regexType(value) + " " + value);
+            }
+        }
+    }
+
+    private static TokenType regexType(String token) {
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            if (token.equals(KEYWORDS[i])) {
+                return KEYWORD_TYPES[i];
+            }
+        }
+        if (token.matches("[+\\-*/]")) return TokenType.ARITH_OP;
+        if (token.matches("&&|\\|\\||~")) return TokenType.LOGIC_OP;
+        if (token.matches("==|!=|<=|>=|<>|>|<")) return TokenType.REL_OP;
+        if (token.matches("=")) return TokenType.ASSIGN_OP;
+        if (token.equals(".")) return TokenType.ACCESS_OP;
+        if (token.matches("[{}()\\[\\]]")) return TokenType.BRACES;
+        if (token.equals(";")) return TokenType.SEMICOLON;
+        if (token.matches("\".*\"")) return TokenType.STRING;
+        if (token.matches("'.*'")) return TokenType.CHARACTER;
+        if (token.matches("\\d+")) return TokenType.CONSTANT;
+        if (token.matches("[a-zA-Z_][a-zA-Z0-9_]*")) return TokenType.IDENTIFIER;
+        return TokenType.UNKNOWN;
+    }
+
+    private static List<String> describe(List<Token> tokens) {
+        List<String> described = new ArrayList<>();
+        for (Token token : tokens) {
+            described.add(token.getLineNumber() + " " + token.getType() + " " + token.getValue());
+        }
+        return described;
+    }
+
+    private static void check(List<String> expected, List<String> actual, String source) {
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            check(expected.get(i).equals(actual.get(i)),
+                    source + " token " + i + ": expected " + expected.get(i) + " but got " + actual.get(i));
+        }
+        check(expected.size() == actual.size(),
+                source + ": expected " + expected.size() + " tokens but got " + actual.size());
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package parser;
+
+import error.CompilerError;
+import lexer.Lexer;
+import lexer.TokenBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Checks panic-mode recovery and the error budget: every broken statement is
+// reported once and the statements after it are still parsed, the parse
+// stops after maxErrors errors with a final note, a long broken file gives a
+// bounded error list, and Parser, its other builders and TableParser report
+// the same errors. Run with: java -cp <classes> parser.ErrorRecoveryTest
+class ErrorRecoveryTest {
+    private static final int BROKEN = 20;
+
+    public static void main(String[] args) {
+        StringBuilder source = new StringBuilder("Program\nDivision C InferedFrom Base {\nIre run ( ) {\n");
+        for (int i = 0; i < BROKEN; i++) {
+            source.append("Ire x").append(i).append(" = = 1 ;\n");
+            source.append("y").append(i).append(" = 2 ;\n");
+        }
+        source.append("}\n}\nEnd\n");
+        TokenBuffer tokens = new Lexer().tokenizeToBuffer(source.toString(), "broken.txt");
+
+        // Under the budget every broken statement is one error
+        Parser parser = new Parser(tokens);
+        ParseTree tree = parser.parse();
+        List<String> errors = describe(parser.getErrors());
+        check(errors.size() == BROKEN, "expected " + BROKEN + " errors, got " + errors);
+        for (int i = 0; i < BROKEN; i++) {
+            check(errors.get(i).startsWith((4 + 2 * i) + " "), "error " + i + " is on the wrong line: " + errors.get(i));
+        }
+        int assignments = 0;
+        for (ParseTreeNode node : tree.getNodes()) {
+            if (!node.isRuleNode() && node.getValue().startsWith("y") && tree.getEnclosingRule(node, "Assignment") != null) {
+                assignments++;
+            }
+        }
+        check(assignments == BROKEN, "the statements after each error are parsed, found " + assignments);
+        check(tree.getRules("ClassDeclaration").size() == 1, "the Division is still closed");
+        sameErrors(tokens, Parser.DEFAULT_MAX_ERRORS, errors);
+
+        // Over the budget the parse stops with a note after maxErrors
+        for (int budget : new int[]{1, 5, BROKEN}) {
+            Parser limited = new Parser(tokens);
+            limited.setMaxErrors(budget);
+            limited.parse();
+            List<String> limitedErrors = describe(limited.getErrors());
+            check(limitedErrors.size() == budget + 1, "budget " + budget + " gave " + limitedErrors);
+            check(limitedErrors.subList(0, budget).equals(errors.subList(0, budget)), "budget " + budget + " changed errors");
+            check(limitedErrors.get(budget).endsWith("Too many errors (" + budget + "), parsing stopped"),
+                    "budget " + budget + " ends with " + limitedErrors.get(budget));
+            sameErrors(tokens, budget, limitedErrors);
+        }
+
+        // A long broken file is reported up to the default budget
+        StringBuilder longFile = new StringBuilder("Program\n");
+        for (int i = 0; i < 5_000; i++) {
+            longFile.append("Division D").append(i).append(" InferedFrom Base {\nIre run ( ) {\nIre x = = 1 ;\n}\n}\n");
+        }
+        longFile.append("End\n");
+        TokenBuffer longTokens = new Lexer().tokenizeToBuffer(longFile.toString(), "long.txt");
+        Parser longParser = new Parser(longTokens);
+        longParser.parse();
+        List<String> longErrors = describe(longParser.getErrors());
+        check(longErrors.size() == Parser.DEFAULT_MAX_ERRORS + 1, "the long file gave " + longErrors.size() + " errors");
+        sameErrors(longTokens, Parser.DEFAULT_MAX_ERRORS, longErrors);
+        System.out.println("ErrorRecoveryTest: ok");
+    }
+
+    private static void sameErrors(TokenBuffer tokens, int budget, List<String> expected) {
+        TableParser table = new TableParser(tokens);
+        table.setMaxErrors(budget);
+        table.parse();
+        check(describe(table.getErrors()).equals(expected), "TableParser with budget " + budget);
+
+        Parser validating = new Parser(tokens);
+        validating.setMaxErrors(budget);
+        check(describe(validating.validate()).equals(expected), "validate with budget " + budget);
+
+        Parser arena = new Parser(tokens);
+        arena.setMaxErrors(budget);
+        arena.parseArena();
+        check(describe(arena.getErrors()).equals(expected), "parseArena with budget " + budget);
+
+        Parser green = new Parser(tokens);
+        green.setMaxErrors(budget);
+        green.parseGreen();
+        check(describe(green.getErrors()).equals(expected), "parseGreen with budget " + budget);
+    }
+
+    private static List<String> describe(List<CompilerError> errors) {
+        List<String> described = new ArrayList<>();
+        for (CompilerError error : errors) {
+            described.add(error.getLineNumber() + " " + error.getFileName() + ": " + error.getMessage());
+        }
+        return described;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package parser;
+
+import error.CompilerError;
+import lexer.Lexer;
+import lexer.TokenBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+// Checks that every way of parsing builds the same tree and reports the same
+// errors as Parser.parse(): TableParser, parseParallel, parseArena,
+// parseShared, parseGreen and validate, on a generated program, programs
+// with errors, deep nesting and random token soup. parseFlat keeps the tokens
+// of parse() and leaves out only operator rules with a single operand.
+// Run with: java -cp <classes> parser.ParserParityTest
+class ParserParityTest {
+    private static final String[] TYPES = {"Ire", "Sire", "Clo", "SetOfClo", "FBU", "SFBU", "Logical"};
+    private static final String[] SOUP = {
+            "Program", "End", "Division", "InferedFrom", "Ire", "Logical", "Rotatewhen", "Continuewhen",
+            "WhetherDoElse", "Replywith", "terminatethis", "x", "y", "1", "\"s\"", "{", "}", "(", ")", ";", "=",
+            "+", "*", "<", "==", "&&", "~", "."
+    };
+    private static final Set<String> OPERATOR_RULES = Set.of("ConditionExpression", "Condition", "Expression", "Term", "Factor");
+
+    public static void main(String[] args) {
+        check(check(program(false), "program") == 0, "the program parses without errors");
+        check(check(program(true), "program with errors") > 0, "the broken program has errors");
+        check("Program\nDivision C InferedFrom Base {\nIre x = " + "( 1 + ".repeat(2_000) + "1" + " )".repeat(2_000)
+                + " ;\nIre run ( ) {\n" + "Rotatewhen ( x < 1 ) {\n".repeat(500) + "x = x + 1 ;\n" + "}\n".repeat(500)
+                + "}\n}\nEnd\n", "deep nesting");
+        check("", "empty input");
+        check("Program\nEnd\n", "empty program");
+
+        Random random = new Random(1);
+        for (int i = 0; i < 300; i++) {
+            StringBuilder soup = new StringBuilder(random.nextBoolean() ? "Program\n" : "");
+            for (int length = random.nextInt(200); length > 0; length--) {
+                soup.append(SOUP[random.nextInt(SOUP.length)]).append(random.nextInt(8) == 0 ? "\n" : " ");
+            }
+            check(soup.toString(), "soup " + i);
+        }
+        System.out.println("ParserParityTest: ok");
+    }
+
+    private static String program(boolean errors) {
+        Random random = new Random(1);
+        StringBuilder source = new StringBuilder("Program\n");
+        for (int i = 0; i < 200; i++) {
+            source.append("Division C").append(i).append(" InferedFrom Base {\n");
+            source.append(TYPES[random.nextInt(TYPES.length)]).append(" count ;\n");
+            source.append("Ire total = count * 2 + ( count - 1 ) / 3 ;\n");
+            source.append(TYPES[random.nextInt(TYPES.length)]).append(" run ( ) {\n");
+            source.append("Ire i = 0 ;\n");
+            source.append("Rotatewhen ( i < 10 && total == 3 ) {\n");
+            source.append(errors && i % 5 == 0 ? "i = = i + ;\n" : "i = i + 1 ;\n");
+            source.append("log ( i * total ) ;\n");
+            source.append("}\n");
+            source.append("Continuewhen ( i ; i - 5 ; i + 1 ) {\n");
+            source.append("WhetherDoElse ( i == 2 ) {\nterminatethis ;\n}\n");
+            source.append("}\n");
+            source.append(errors && i % 7 == 3 ? "Replywith total\n" : "Replywith total ;\n");
+            source.append("}\n");
+            source.append("}\n");
+        }
+        source.append("End\n");
+        return source.toString();
+    }
+
+    // Returns the number of errors
+    private static int check(String source, String input) {
+        TokenBuffer tokens = new Lexer().tokenizeToBuffer(source, "parity.txt");
+        Parser parser = new Parser(tokens);
+        ParseTree tree = parser.parse();
+        String expected = tree.toString();
+        List<String> errors = describe(parser.getErrors());
+
+        TableParser table = new TableParser(tokens);
+        check(expected.equals(table.parse().toString()), input + ": TableParser built another tree");
+        check(errors.equals(describe(table.getErrors())), input + ": TableParser reported other errors");
+
+        Parser parallel = new Parser(tokens);
+        check(expected.equals(parallel.parseParallel(ForkJoinPool.commonPool()).toString()),
+                input + ": parseParallel built another tree");
+        check(errors.equals(describe(parallel.getErrors())), input + ": parseParallel reported other errors");
+
+        Parser arena = new Parser(tokens);
+        check(expected.equals(arena.parseArena().toString()), input + ": parseArena built another tree");
+        check(errors.equals(describe(arena.getErrors())), input + ": parseArena reported other errors");
+
+        Parser shared = new Parser(tokens);
+        check(expected.equals(shared.parseShared().toParseTree().toString()), input + ": parseShared built another tree");
+        check(errors.equals(describe(shared.getErrors())), input + ": parseShared reported other errors");
+
+        Parser green = new Parser(tokens);
+        check(expected.equals(green.parseGreen().toString()), input + ": parseGreen built another tree");
+        check(errors.equals(describe(green.getErrors())), input + ": parseGreen reported other errors");
+
+        check(errors.equals(describe(new Parser(tokens).validate())), input + ": validate reported other errors");
+
+        Parser flat = new Parser(tokens);
+        ParseTree flatTree = flat.parseFlat();
+        check(errors.equals(describe(flat.getErrors())), input + ": parseFlat reported other errors");
+        check(leaves(tree).equals(leaves(flatTree)), input + ": parseFlat has other tokens");
+        for (ParseTreeNode node : flatTree.getNodes()) {
+            ParseTreeNode parent = node.getParent();
+            check(!(OPERATOR_RULES.contains(node.getName()) && node.getChildren().size() == 1 && parent != null
+                    && OPERATOR_RULES.contains(parent.getName())), input + ": parseFlat kept a single operand rule");
+        }
+        return errors.size();
+    }
+
+    private static List<String> leaves(ParseTree tree) {
+        List<String> leaves = new ArrayList<>();
+        for (ParseTreeNode node : tree.getNodes()) {
+            if (!node.isRuleNode()) {
+                leaves.add(node.getValue() + " @" + node.getLineNumber() + " #" + node.getFirstToken());
+            }
+        }
+        return leaves;
+    }
+
+    private static List<String> describe(List<CompilerError> errors) {
+        List<String> described = new ArrayList<>();
+        for (CompilerError error : errors) {
+            described.add(error.toString());
+        }
+        return described;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
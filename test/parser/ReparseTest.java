@@ -0,0 +1,202 @@
+package parser;
+
+import lexer.LexedDocument;
+import lexer.Lexer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+// Checks Parser.reparse against a full parse of the edited document over
+// random edits: lines added, removed and replaced, syntax errors, edits on
+// the first and last lines, an include and a deeply nested expression. The
+// reparsed tree must have the same nodes with the same tokens, lines and
+// files, most of it moved over from the previous tree, listeners must see
+// the events of a full parse, and the rule and line queries must find what a
+// walk over the nodes finds.
+// Run with: java -cp <classes> parser.ReparseTest
+class ReparseTest {
+    private static final int ROUNDS = 300;
+    private static final int DIVISIONS = 60;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("reparse");
+        Path include = directory.resolve("inc.txt");
+        Files.writeString(include, "Ire included ;\nClo c ;\n");
+        String main = directory.resolve("main.txt").toString();
+        try {
+            run(main, include.toString());
+        } finally {
+            Files.delete(include);
+            Files.delete(directory);
+        }
+        System.out.println("ReparseTest: ok");
+    }
+
+    private static void run(String main, String include) {
+        StringBuilder source = new StringBuilder("Program\n");
+        for (int i = 0; i < DIVISIONS; i++) {
+            source.append("Division C").append(i).append(" InferedFrom Base {\nIre count ;\n");
+            if (i == DIVISIONS * 3 / 4) {
+                source.append("Ire x = ").append("( 1 + ".repeat(5_000)).append("1").append(" )".repeat(5_000)).append(" ;\n");
+            }
+            source.append("Ire run ( ) {\nIre i = 0 ;\nRotatewhen ( i < 10 ) {\ni = i + 1 ;\n}\nReplywith i ;\n}\n}\n");
+            if (i % 20 == 10) {
+                source.append("Using(\"inc.txt\");\n");
+            }
+        }
+        source.append("End\n");
+
+        Random random = new Random(7);
+        LexedDocument document = LexedDocument.lex(new Lexer(), source.toString(), main);
+        ParseTree tree = new Parser(document.getTokens()).parse();
+        for (int round = 0; round < ROUNDS; round++) {
+            int lines = document.getLineCount();
+            int line = round % 10 == 0 ? 1 : round % 10 == 5 ? lines - 2 : 2 + random.nextInt(lines / 2);
+            // Blank lines go before Program, and near the end a statement that
+            // breaks the whole program
+            int kind = round % 10 != 0 ? random.nextInt(5) : round == ROUNDS - 10 ? 0 : 3;
+            int removed = kind == 1 || kind == 2 ? 1 : 0;
+            if (removed == 1 && line >= lines - 1) {
+                continue;
+            }
+            String replacement = switch (kind) {
+                case 0 -> "Ire extra" + round + " ;";
+                case 1 -> "";
+                case 2 -> "Ire a ;\nIre b ;\nIre c ;";
+                case 3 -> "\n\n";
+                default -> "Ire = = junk" + round + " ;";
+            };
+            boolean started = startsWithProgram(document);
+            document.replaceLines(line, removed, replacement);
+
+            Parser full = new Parser(document.getTokens());
+            ParseTree expected = full.parse();
+            Set<ParseTreeNode> previous = Collections.newSetFromMap(new IdentityHashMap<>());
+            previous.addAll(tree.getNodes());
+            Parser parser = new Parser(document.getTokens());
+            ParseTree listened = new ParseTree();
+            parser.addListener(listened);
+            tree = parser.reparse(tree, document);
+            String at = "round " + round + " (line " + line + ", edit " + kind + ")";
+            check(events(listened).equals(events(expected)), at + ": listener events differ");
+            check(parser.getErrors().toString().equals(full.getErrors().toString()), at + ": errors differ");
+
+            // An edit of a few lines leaves most of the tree to be moved over,
+            // unless a statement before Program breaks the whole program before
+            // or after it
+            int moved = 0;
+            for (ParseTreeNode node : tree.getNodes()) {
+                if (previous.contains(node)) {
+                    moved++;
+                }
+            }
+            check(moved > tree.getNodes().size() / 2 || !started || !startsWithProgram(document),
+                    at + ": only " + moved + " nodes were moved over");
+            checkNodes(expected, tree, at);
+            checkQueries(expected, tree, main, include, new Random(round), at);
+        }
+    }
+
+    private static void checkNodes(ParseTree expected, ParseTree tree, String at) {
+        List<ParseTreeNode> expectedNodes = expected.getNodes();
+        List<ParseTreeNode> nodes = tree.getNodes();
+        check(nodes.size() == expectedNodes.size(), at + ": " + nodes.size() + " nodes instead of " + expectedNodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            check(describe(nodes.get(i)).equals(describe(expectedNodes.get(i))),
+                    at + ": node " + i + " is " + describe(nodes.get(i)) + " instead of " + describe(expectedNodes.get(i)));
+        }
+    }
+
+    private static void checkQueries(ParseTree expected, ParseTree tree, String main, String include, Random random, String at) {
+        check(describe(tree.getMatchedRules()).equals(describe(expected.getMatchedRules())), at + ": matched rules");
+        for (String rule : new String[]{"ClassDeclaration", "VarDeclaration", "Expression", "Factor", "Nope"}) {
+            List<ParseTreeNode> walked = new ArrayList<>();
+            for (ParseTreeNode node : tree.getNodes()) {
+                if (node.isRuleNode() && node.getName().equals(rule)) {
+                    walked.add(node);
+                }
+            }
+            check(walked.equals(tree.getRules(rule)), at + ": getRules(" + rule + ")");
+        }
+        for (ParseTreeNode within : tree.getRules("MethodDeclaration")) {
+            for (String rule : new String[]{"VarDeclaration", "Expression", "MethodDeclaration"}) {
+                List<ParseTreeNode> walked = new ArrayList<>();
+                for (ParseTreeNode node : tree.getNodes()) {
+                    if (node != within && node.isRuleNode() && node.getName().equals(rule) && isBelow(node, within)) {
+                        walked.add(node);
+                    }
+                }
+                check(walked.equals(tree.getRules(rule, within)), at + ": getRules(" + rule + ", within)");
+            }
+        }
+        for (int query = 0; query < 20; query++) {
+            boolean included = query % 4 == 0;
+            String file = included ? include : main;
+            int first = included ? random.nextInt(3) : random.nextInt(700);
+            int last = first + (included ? random.nextInt(3) : random.nextInt(40));
+            List<ParseTreeNode> walked = new ArrayList<>();
+            for (ParseTreeNode node : tree.getNodes()) {
+                int line = node.getLineNumber();
+                if (node.isRuleNode() && line >= first && line <= last && Objects.equals(node.getFileName(), file)) {
+                    walked.add(node);
+                }
+            }
+            walked.sort(Comparator.comparingInt(ParseTreeNode::getLineNumber));
+            List<ParseTreeNode> found = tree.getRulesInLines(file, first, last);
+            check(walked.equals(found), at + ": getRulesInLines(" + file + ", " + first + ", " + last + ")");
+            check(describe(found).equals(describe(expected.getRulesInLines(file, first, last))),
+                    at + ": getRulesInLines(" + file + ", " + first + ", " + last + ") differs from a full parse");
+        }
+    }
+
+    private static boolean startsWithProgram(LexedDocument document) {
+        return document.getTokens().getValue(0).equals("Program");
+    }
+
+    private static boolean isBelow(ParseTreeNode node, ParseTreeNode ancestor) {
+        for (ParseTreeNode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A tree built by a listener, which is not told where rules start and end
+    private static List<String> events(ParseTree tree) {
+        List<String> described = new ArrayList<>();
+        for (ParseTreeNode node : tree.getNodes()) {
+            described.add(node.isRuleNode() ? node.getName() + " @" + node.getFileName() + ":" + node.getLineNumber()
+                    : describe(node));
+        }
+        return described;
+    }
+
+    private static List<String> describe(List<ParseTreeNode> nodes) {
+        List<String> described = new ArrayList<>();
+        for (ParseTreeNode node : nodes) {
+            described.add(describe(node));
+        }
+        return described;
+    }
+
+    private static String describe(ParseTreeNode node) {
+        return node.getName() + (node.isRuleNode() ? "" : " " + node.getValue()) + " @" + node.getFileName()
+                + ":" + node.getLineNumber() + " [" + node.getFirstToken() + ", " + node.getEndToken() + ")";
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
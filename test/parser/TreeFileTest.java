@@ -0,0 +1,147 @@
+package parser;
+
+import lexer.Lexer;
+import lexer.SymbolTable;
+import lexer.TokenBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+// Checks that a tree written to a TreeFile reads back node for node: a parsed
+// program with errors, a subtree written on its own, a hand-made tree with
+// empty values, unknown positions and non-ASCII text, and a tree nested
+// deeper than a recursive walk could go. Damaged files are rejected.
+// Run with: java -cp <classes> parser.TreeFileTest
+class TreeFileTest {
+    public static void main(String[] args) throws IOException {
+        Path file = Files.createTempFile("tree", ".tree");
+        try {
+            parsed(file);
+            handMade(file);
+            deep(file);
+            damaged(file);
+        } finally {
+            Files.delete(file);
+        }
+        System.out.println("TreeFileTest: ok");
+    }
+
+    private static void parsed(Path file) throws IOException {
+        StringBuilder source = new StringBuilder("Program\n");
+        for (int i = 0; i < 200; i++) {
+            source.append("Division C").append(i).append(" InferedFrom Base {\n");
+            source.append("SetOfClo s = \"naïve ✓\" ;\n");
+            source.append("Ire run ( ) {\nIre i = i * 2 + ( 1 - i ) ;\n");
+            source.append(i % 7 == 0 ? "Ire = = broken ;\n" : "log ( i ) ;\n");
+            source.append("}\n}\n");
+        }
+        source.append("End\n");
+        TokenBuffer tokens = new Lexer().tokenizeToBuffer(source.toString(), "program.txt");
+        ParseTree tree = new Parser(tokens).parse();
+
+        TreeFile.write(tree, file);
+        checkSame(tree.getRoot(), TreeFile.read(file), null, "the parsed tree");
+
+        // Symbols are interned into the table read with, so they name the value again
+        SymbolTable symbols = new SymbolTable();
+        ParseTreeNode read = TreeFile.read(file, symbols);
+        checkSame(tree.getRoot(), read, symbols, "the parsed tree with symbols");
+
+        // A Division on its own becomes the root of its file
+        ParseTreeNode division = tree.getRules("ClassDeclaration").get(7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TreeFile.write(division, out);
+        Files.write(file, out.toByteArray());
+        ParseTreeNode root = TreeFile.read(file);
+        checkSame(division, root, null, "a Division on its own");
+        check(root.getParent() == null, "the read Division has no parent");
+    }
+
+    private static void handMade(Path file) throws IOException {
+        ParseTreeNode root = new ParseTreeNode("Root", -1);
+        ParseTreeNode empty = new ParseTreeNode("Comment", "", 3, "a.txt");
+        ParseTreeNode unicode = new ParseTreeNode("String", "\"日本語 😀\"", 4, "dir/ü.txt");
+        ParseTreeNode rule = new ParseTreeNode("Rule", null, 0, "a.txt");
+        rule.firstToken = 5;
+        rule.endToken = 5;
+        ParseTreeNode leaf = new ParseTreeNode("Identifier", "x", 7, Integer.MAX_VALUE, "a.txt");
+        leaf.firstToken = Integer.MAX_VALUE - 1;
+        leaf.endToken = Integer.MAX_VALUE;
+        root.addChild(empty);
+        root.addChild(unicode);
+        root.addChild(rule);
+        rule.addChild(leaf);
+        rule.addChild(new ParseTreeNode("Empty", -5));
+
+        try (OutputStream out = Files.newOutputStream(file)) {
+            TreeFile.write(root, out);
+        }
+        checkSame(root, TreeFile.read(file), null, "the hand-made tree");
+    }
+
+    // 20000 nested parentheses, read back with an explicit stack
+    private static void deep(Path file) throws IOException {
+        String source = "Program\nDivision C InferedFrom Base {\nIre x = " + "( ".repeat(20_000) + "1" + " )".repeat(20_000)
+                + " ;\n}\nEnd\n";
+        ParseTree tree = new Parser(new Lexer().tokenizeToBuffer(source, "deep.txt")).parse();
+        TreeFile.write(tree, file);
+        checkSame(tree.getRoot(), TreeFile.read(file), null, "the deep tree");
+    }
+
+    private static void damaged(Path file) throws IOException {
+        TreeFile.write(new Parser(new Lexer().tokenizeToBuffer("Program\nEnd\n", "small.txt")).parse(), file);
+        byte[] bytes = Files.readAllBytes(file);
+        byte[][] broken = {
+                new byte[0],
+                Arrays.copyOf(bytes, bytes.length - 1),
+                Arrays.copyOfRange(bytes, 1, bytes.length),
+                "not a tree file at all, just some text".getBytes()
+        };
+        for (byte[] content : broken) {
+            Files.write(file, content);
+            try {
+                TreeFile.read(file);
+                throw new AssertionError("a damaged file of " + content.length + " bytes was read");
+            } catch (IOException e) {
+                // Rejected, as it should be
+            }
+        }
+    }
+
+    // Compares two trees node for node without recursion. With symbols, the
+    // read symbols must name the values; without, they must be -1.
+    private static void checkSame(ParseTreeNode expected, ParseTreeNode read, SymbolTable symbols, String tree) {
+        Deque<ParseTreeNode[]> pairs = new ArrayDeque<>();
+        pairs.push(new ParseTreeNode[]{expected, read});
+        while (!pairs.isEmpty()) {
+            ParseTreeNode[] pair = pairs.pop();
+            ParseTreeNode a = pair[0];
+            ParseTreeNode b = pair[1];
+            boolean symbolMatches = symbols == null ? b.getSymbol() == -1
+                    : a.getSymbol() < 0 ? b.getSymbol() == -1 : symbols.getName(b.getSymbol()).equals(a.getValue());
+            check(describe(a).equals(describe(b)) && symbolMatches && a.getChildren().size() == b.getChildren().size(),
+                    tree + ": expected " + describe(a) + " but read " + describe(b));
+            for (int i = 0; i < a.getChildren().size(); i++) {
+                check(b.getChildren().get(i).getParent() == b, tree + ": a read child knows its parent");
+                pairs.push(new ParseTreeNode[]{a.getChildren().get(i), b.getChildren().get(i)});
+            }
+        }
+    }
+
+    private static String describe(ParseTreeNode node) {
+        return node.getName() + " " + node.getValue() + " @" + node.getFileName() + ":" + node.getLineNumber()
+                + " [" + node.getFirstToken() + ", " + node.getEndToken() + ") " + node.getChildren().size() + " children";
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}